@@ -0,0 +1,156 @@
+package ax.nd.faceunlock.camera;
+
+import android.graphics.SurfaceTexture;
+import android.os.SystemClock;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import ax.nd.faceunlock.camera.capture.Camera1CaptureBackend;
+import ax.nd.faceunlock.camera.capture.CaptureBackend;
+import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.camera.listeners.FaceDetectionResultListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Close-then-open handoff through the real CameraService queue, against a
+ * fake backend whose release takes {@link #CLOSE_MS}. Only ordering is
+ * checked, not how long the handoff took.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CameraServiceHandoffTest {
+    private static final long CLOSE_MS = 60;
+
+    private SlowCloseBackend mBackend;
+
+    @Before
+    public void setUp() throws Exception {
+        mBackend = new SlowCloseBackend();
+        CameraService.setBackend(mBackend);
+        CameraService.closeCamera(null).get(1, TimeUnit.SECONDS);
+        mBackend.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CameraService.setBackend(new Camera1CaptureBackend());
+        CameraService.closeCamera(null).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void closeFutureCompletesOnRelease() throws Exception {
+        CameraService.closeCamera(null).get(1, TimeUnit.SECONDS);
+        long completedAt = SystemClock.elapsedRealtime();
+        assertEquals(1, mBackend.mCloseCount);
+        assertTrue(mBackend.mCloseFinishedAt > 0);
+        assertTrue(completedAt >= mBackend.mCloseFinishedAt);
+    }
+
+    @Test
+    public void openQueuedBehindPendingClose() throws Exception {
+        CountDownLatch opened = new CountDownLatch(1);
+        CameraService.closeCamera(null);
+        CameraService.openCamera(1, null, new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                opened.countDown();
+            }
+            @Override
+            public void onError(Exception e) {}
+        });
+        assertTrue(opened.await(1, TimeUnit.SECONDS));
+        assertEquals(1, mBackend.mCloseCount);
+        assertEquals(1, mBackend.mOpenCount);
+        assertFalse("open raced the close", mBackend.mOpenedWhileClosing);
+        assertTrue(mBackend.mOpenStartedAt >= mBackend.mCloseFinishedAt);
+    }
+
+    private static class SlowCloseBackend implements CaptureBackend {
+        volatile boolean mClosing;
+        volatile boolean mOpenedWhileClosing;
+        volatile long mCloseFinishedAt;
+        volatile long mOpenStartedAt;
+        volatile int mCloseCount;
+        volatile int mOpenCount;
+
+        void reset() {
+            mOpenedWhileClosing = false;
+            mCloseFinishedAt = 0;
+            mOpenStartedAt = 0;
+            mCloseCount = 0;
+            mOpenCount = 0;
+        }
+
+        @Override
+        public String getName() {
+            return "slow-close";
+        }
+
+        @Override
+        public void open(int cameraId, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+            mOpenStartedAt = SystemClock.elapsedRealtime();
+            if (mClosing) mOpenedWhileClosing = true;
+            mOpenCount++;
+            if (cameraListener != null) cameraListener.onComplete(null);
+        }
+
+        @Override
+        public void setPreviewSize(int width, int height) {}
+
+        @Override
+        public int getPreviewWidth() {
+            return 640;
+        }
+
+        @Override
+        public int getPreviewHeight() {
+            return 480;
+        }
+
+        @Override
+        public void startPreview(SurfaceTexture surfaceTexture, CameraListener cameraListener) {}
+
+        @Override
+        public void startPreview(SurfaceHolder surfaceHolder, CameraListener cameraListener) {}
+
+        @Override
+        public void configureAndStartPreview(Surface surface, CameraListener cameraListener) {}
+
+        @Override
+        public void stopPreview(CameraListener cameraListener) {}
+
+        @Override
+        public void setPreviewFpsRange(int min, int max, CameraListener cameraListener) {}
+
+        @Override
+        public void setFaceDetectionListener(FaceDetectionResultListener listener, CameraListener cameraListener) {}
+
+        @Override
+        public void setPreviewCallback(ByteBufferCallbackListener callback, boolean withBuffer, CameraListener cameraListener) {}
+
+        @Override
+        public void addCallbackBuffer(byte[] buffer) {}
+
+        @Override
+        public void close(CameraListener cameraListener) {
+            mClosing = true;
+            SystemClock.sleep(CLOSE_MS);
+            mCloseFinishedAt = SystemClock.elapsedRealtime();
+            mClosing = false;
+            mCloseCount++;
+            if (cameraListener != null) cameraListener.onComplete(null);
+        }
+    }
+}
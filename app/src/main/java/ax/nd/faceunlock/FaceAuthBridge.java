@@ -3,13 +3,18 @@ package ax.nd.faceunlock;
 import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import ax.nd.faceunlock.vendor.FacePPImpl;
 import ax.nd.faceunlock.camera.CameraFaceEnrollController;
 import ax.nd.faceunlock.camera.CameraFaceAuthController;
 import ax.nd.faceunlock.camera.CameraService;
+import ax.nd.faceunlock.camera.CameraStandby;
+import ax.nd.faceunlock.camera.CompareBatchPolicy;
+import ax.nd.faceunlock.camera.FacePipeline;
+import ax.nd.faceunlock.camera.capture.Camera2CaptureBackend;
+import ax.nd.faceunlock.util.FaceMetrics;
 import ax.nd.faceunlock.util.Util; 
 
 import java.lang.reflect.Field;
@@ -17,16 +22,41 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FaceAuthBridge {
     private static final String TAG = "FaceAuthBridge";
     private static FaceAuthBridge sInstance;
     private Context mContext;
     private FacePPImpl mFacePP;
+    // Control thread for requests and session setup, and the thread binder callbacks go out on.
     private Handler mHandler;
+    private final Executor mControl;
+    private final Executor mCallbacks;
     private SurfaceTexture mDummySurface;
     private CameraFaceAuthController mAuthController;
+    // Paused controller kept warm by mStandby; guarded by mAuthLock like mAuthController.
+    private CameraFaceAuthController mStandbyController;
+    private CameraStandby mStandby;
+    private final Object mAuthLock = new Object();
     private static final int FRONT_CAMERA_ID = 1;
+    private static final String PROP_CAMERA2 = "persist.sys.oplus.face.camera2";
+    // Largest number of frames per compare call; 0 or 1 keeps per-frame compare.
+    private static final String PROP_COMPARE_BATCH = "persist.sys.oplus.face.compare_batch";
+    private final CompareBatchPolicy mBatchPolicy;
+    // Native engine handles, and so concurrent compares; 1 keeps a single handle.
+    private static final String PROP_ENGINES = "persist.sys.oplus.face.engines";
+    private final int mEngines;
+    // Longest a start request waits for the engine to finish loading.
+    private static final long ENGINE_READY_TIMEOUT_MS = 5000;
+    // The camera opens alongside the engine load when it has at most this long to go.
+    private static final long CAMERA_HEAD_START_MS = 300;
+    // Set by the first unlock since boot, which is recorded per model preload mode.
+    private final AtomicBoolean mFirstUnlock = new AtomicBoolean();
     
     // Engine Constants
     private static final int MG_UNLOCK_OK = 0;
@@ -50,16 +80,36 @@ public class FaceAuthBridge {
 
     private FaceAuthBridge(Context context) {
         mContext = context;
-        mHandler = new Handler(Looper.getMainLooper());
-        mFacePP = new FacePPImpl(context);
+        mHandler = FacePipeline.getInstance().getControlHandler();
+        mControl = FacePipeline.timed(mHandler, "bridge.control.queue_ms");
+        mCallbacks = FacePipeline.timed(FacePipeline.getInstance().getCallbackHandler(), "bridge.callback.queue_ms");
+        mEngines = getIntProperty(PROP_ENGINES, 1);
+        mFacePP = new FacePPImpl(context, mEngines);
         mDummySurface = new SurfaceTexture(10); 
+        mStandby = new CameraStandby(context, mHandler, reason -> releaseStandby());
+        mBatchPolicy = new CompareBatchPolicy(getIntProperty(PROP_COMPARE_BATCH, 1));
+        if ("1".equals(Util.getSystemProperty(PROP_CAMERA2, "0"))) {
+            CameraService.setBackend(new Camera2CaptureBackend(context));
+        }
+    }
+
+    private static int getIntProperty(String key, int def) {
+        try {
+            return Integer.parseInt(Util.getSystemProperty(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid " + key, e);
+            return def;
+        }
     }
 
     public static void init(Context context) {
         if (sInstance == null) {
             try {
+                long start = SystemClock.elapsedRealtime();
                 sInstance = new FaceAuthBridge(context);
-                sInstance.mFacePP.init(); 
+                // The native libraries and models load in the background; starts wait for them.
+                sInstance.mFacePP.initAsync();
+                FaceMetrics.getInstance().recordLatency("boot.init_sensors_ms", SystemClock.elapsedRealtime() - start);
             } catch (Throwable t) {
                 Log.e(TAG, "FaceAuthBridge initialization failed.", t);
             }
@@ -80,11 +130,11 @@ public class FaceAuthBridge {
 
     // --- CHALLENGE ---
     public void generateChallenge(final int sensorId, final int userId, final Object receiver) {
-        mHandler.post(() -> notifyChallengeGenerated(receiver, sensorId, userId, new Random().nextLong()));
+        notifyChallengeGenerated(receiver, sensorId, userId, new Random().nextLong());
     }
 
     public void revokeChallenge(final int sensorId, final int userId, final Object receiver) {
-        mHandler.post(() -> notifyChallengeRevoked(receiver, sensorId, userId, 0L));
+        notifyChallengeRevoked(receiver, sensorId, userId, 0L);
     }
 
     // --- ENROLLMENT ---
@@ -94,58 +144,69 @@ public class FaceAuthBridge {
         mEngineSuccess = false;
         mCurrentSteps = TOTAL_STEPS;
         
-        mHandler.post(() -> {
-            try {
-                forceReleaseCamera();
-                try { Thread.sleep(150); } catch (Exception e) {}
-                notifyEnrollResult(receiverObject, 0, userId, TOTAL_STEPS);
-                mFacePP.saveFeatureStart();
-                CameraFaceEnrollController.getInstance(mContext).start(new CameraFaceEnrollController.CameraCallback() {
-                    byte[] mFeature = new byte[10000]; 
-                    byte[] mFaceData = new byte[40000];
-                    int[] mOutId = new int[1];
-                    @Override public int handleSaveFeature(byte[] data, int width, int height, int angle) {
-                        if (mEnrollFinished || mEngineSuccess) return 0;
-                        return mFacePP.saveFeature(data, width, height, angle, true, mFeature, mFaceData, mOutId);
-                    }
-                    @Override public void handleSaveFeatureResult(int res) {
-                        if (mEnrollFinished || mEngineSuccess) return;
-                        if (res == MG_UNLOCK_OK) { 
-                            mEngineSuccess = true;
-                            int finalFaceId = (mOutId[0] <= 0) ? 1 : mOutId[0];
-                            mPendingFaceId = finalFaceId;
-                            Log.i(TAG, "Enrollment successful. ID assigned: " + finalFaceId);
-                            runProgressAnimation(receiverObject, userId);
+        mControl.execute(() -> {
+            leaveStandby("enroll");
+            forceReleaseCamera().thenCombine(awaitEngine(), (released, ready) -> ready)
+                    .whenCompleteAsync((ready, t) -> {
+                        if (t != null) {
+                            if (!mEnrollFinished) notifyError(receiverObject, 1, 0);
                             return;
                         }
-                        long now = System.currentTimeMillis();
-                        if (now - mLastUpdateTime < 100) return;
-                        mLastUpdateTime = now;
-                        int info = -1;
-                        if (res == MG_UNLOCK_KEEP) {
-                             if (mCurrentSteps > 5) {
-                                 mCurrentSteps--;
-                                 notifyEnrollResult(receiverObject, 0, userId, mCurrentSteps);
-                             }
-                             info = FACE_ACQUIRED_GOOD;
-                        }
-                        if (info != -1) notifyAcquired(receiverObject, userId, info, 0);
-                    }
-                    @Override public void onFaceDetected() {}
-                    @Override public void onTimeout() { if(!mEngineSuccess) { stopEnroll(); notifyError(receiverObject, 3, 0); } }
-                    @Override public void onCameraError() { if(!mEngineSuccess) { stopEnroll(); notifyError(receiverObject, 1, 0); } }
-                    @Override public void setDetectArea(android.hardware.Camera.Size size) { mFacePP.setDetectArea(0, 0, size.height, size.width); }
-                }, FRONT_CAMERA_ID, previewSurface); 
-            } catch (Throwable t) {
-                forceReleaseCamera();
-                notifyError(receiverObject, 1, 0);
-            }
+                        startEnrollSession(userId, receiverObject, previewSurface);
+                    }, mControl);
         });
     }
 
+    private void startEnrollSession(final int userId, final Object receiverObject, final Surface previewSurface) {
+        if (mEnrollFinished) return;
+        try {
+            notifyEnrollResult(receiverObject, 0, userId, TOTAL_STEPS);
+            mFacePP.saveFeatureStart();
+            CameraFaceEnrollController.getInstance(mContext).start(new CameraFaceEnrollController.CameraCallback() {
+                byte[] mFeature = new byte[10000]; 
+                byte[] mFaceData = new byte[40000];
+                int[] mOutId = new int[1];
+                @Override public int handleSaveFeature(byte[] data, int width, int height, int angle) {
+                    if (mEnrollFinished || mEngineSuccess) return 0;
+                    return mFacePP.saveFeature(data, width, height, angle, true, mFeature, mFaceData, mOutId);
+                }
+                @Override public void handleSaveFeatureResult(int res) {
+                    if (mEnrollFinished || mEngineSuccess) return;
+                    if (res == MG_UNLOCK_OK) { 
+                        mEngineSuccess = true;
+                        int finalFaceId = (mOutId[0] <= 0) ? 1 : mOutId[0];
+                        mPendingFaceId = finalFaceId;
+                        Log.i(TAG, "Enrollment successful. ID assigned: " + finalFaceId);
+                        runProgressAnimation(receiverObject, userId);
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - mLastUpdateTime < 100) return;
+                    mLastUpdateTime = now;
+                    int info = -1;
+                    if (res == MG_UNLOCK_KEEP) {
+                         if (mCurrentSteps > 5) {
+                             mCurrentSteps--;
+                             notifyEnrollResult(receiverObject, 0, userId, mCurrentSteps);
+                         }
+                         info = FACE_ACQUIRED_GOOD;
+                    }
+                    if (info != -1) notifyAcquired(receiverObject, userId, info, 0);
+                }
+                @Override public void onFaceDetected() {}
+                @Override public void onTimeout() { if(!mEngineSuccess) { stopEnroll(); notifyError(receiverObject, 3, 0); } }
+                @Override public void onCameraError() { if(!mEngineSuccess) { stopEnroll(); notifyError(receiverObject, 1, 0); } }
+                @Override public void setDetectArea(android.hardware.Camera.Size size) { mFacePP.setDetectArea(0, 0, size.height, size.width); }
+            }, FRONT_CAMERA_ID, previewSurface);
+        } catch (Throwable t) {
+            forceReleaseCamera();
+            notifyError(receiverObject, 1, 0);
+        }
+    }
+
     private void runProgressAnimation(final Object receiver, final int userId) {
         final int DELAY_MS = 50;
-        mHandler.post(new Runnable() {
+        mControl.execute(new Runnable() {
             public void run() {
                 if (mEnrollFinished) return;
                 mCurrentSteps--;
@@ -179,28 +240,115 @@ public class FaceAuthBridge {
     // --- AUTHENTICATION ---
     public void startAuthenticate(final int sensorId, final int userId, final Object receiverObject) {
         Log.d(TAG, "Authentication requested. Sensor: " + sensorId + ", User: " + userId);
-        mHandler.post(() -> {
+        final long requestedAt = SystemClock.elapsedRealtime();
+        mControl.execute(() -> {
             try {
-                forceReleaseCamera(); 
-                try { Thread.sleep(100); } catch (Exception e) {}
-                mFacePP.compareStart();
-                mAuthController = new CameraFaceAuthController(mContext, new CameraFaceAuthController.ServiceCallback() {
+                // Frames that arrive before compareStart() ran are skipped.
+                final AtomicBoolean prepared = new AtomicBoolean();
+                CameraFaceAuthController.ServiceCallback callback = new CameraFaceAuthController.ServiceCallback() {
+                    // Parallel compares may succeed more than once; only the first one unlocks.
+                    private final AtomicBoolean mUnlocked = new AtomicBoolean();
                     @Override
                     public int handlePreviewData(byte[] data, int width, int height) {
+                        if (!prepared.get()) return -1;
                         int[] scores = new int[20];
                         int res = mFacePP.compare(data, width, height, 0, true, true, scores);
-                        if (res == 0) { 
-                            Log.i(TAG, "Authentication successful. Triggering unlock.");
-                            stopAuthenticateInternal(); 
-                            notifyAuthenticated(receiverObject, sensorId, 1, userId); 
+                        if (res == 0) onAuthenticated(mEngines > 1 ? "auth.unlock_ms.parallel" : "auth.unlock_ms.single");
+                        return res;
+                    }
+                    @Override
+                    public int handlePreviewBatch(byte[][] frames, int count, int width, int height) {
+                        if (!prepared.get()) return -1;
+                        int[] scores = new int[20];
+                        int res;
+                        try {
+                            res = mFacePP.compareMultiImages(frames, count, width, height, scores);
+                        } catch (UnsatisfiedLinkError e) {
+                            Log.w(TAG, "Batched compare unavailable, using per-frame compare", e);
+                            mBatchPolicy.disable();
+                            return CameraFaceAuthController.ServiceCallback.super.handlePreviewBatch(frames, count, width, height);
                         }
+                        if (res == 0) onAuthenticated("auth.unlock_ms.batch");
                         return res;
                     }
+                    private void onAuthenticated(String metric) {
+                        if (!mUnlocked.compareAndSet(false, true)) return;
+                        Log.i(TAG, "Authentication successful. Triggering unlock.");
+                        long unlockMs = SystemClock.elapsedRealtime() - requestedAt;
+                        FaceMetrics.getInstance().recordLatency(metric, unlockMs);
+                        FaceMetrics.getInstance().recordLatency("auth.unlock_ms.profile." + mFacePP.getProfile().getName(), unlockMs);
+                        if (mFirstUnlock.compareAndSet(false, true)) {
+                            FaceMetrics.getInstance().recordLatency("auth.first_unlock_ms.preload." + mFacePP.getPreloadMode(), unlockMs);
+                        }
+                        stopAuthenticateInternal(); 
+                        notifyAuthenticated(receiverObject, sensorId, 1, userId); 
+                        Log.d(TAG, mBatchPolicy.dump());
+                        if (mEngines > 1) Log.d(TAG, mFacePP.getEnginePool().dump());
+                    }
                     @Override public void setDetectArea(android.hardware.Camera.Size size) { mFacePP.setDetectArea(0, 0, size.height, size.width); }
+                    @Override public void setDetectArea(int[] area, int[] fullArea) { mFacePP.setTrackedDetectArea(area, fullArea); }
                     @Override public void onTimeout(boolean b) { stopAuthenticateInternal(); notifyError(receiverObject, 3, 0); }
-                    @Override public void onCameraError() { stopAuthenticateInternal(); notifyError(receiverObject, 1, 0); }
-                });
-                mAuthController.start(FRONT_CAMERA_ID, mDummySurface); 
+                    @Override public void onCameraError() { stopAuthenticateInternal(false); notifyError(receiverObject, 1, 0); }
+                };
+                CameraFaceAuthController warm = null;
+                if (mStandby.claim()) {
+                    synchronized (mAuthLock) {
+                        warm = mStandbyController;
+                        mStandbyController = null;
+                    }
+                }
+                if (warm != null) {
+                    FaceMetrics.getInstance().increment("auth.start.standby");
+                    mFacePP.compareStart();
+                    prepared.set(true);
+                    synchronized (mAuthLock) {
+                        mAuthController = warm;
+                    }
+                    warm.resume(callback, mDummySurface);
+                    return;
+                }
+                FaceMetrics.getInstance().increment("auth.start.cold");
+                final CameraFaceAuthController controller = new CameraFaceAuthController(mContext, callback, mBatchPolicy, mEngines);
+                synchronized (mAuthLock) {
+                    mAuthController = controller;
+                }
+                final long releaseStart = SystemClock.elapsedRealtime();
+                CompletableFuture<Void> released = forceReleaseCamera();
+                released.thenRun(() -> FaceMetrics.getInstance().recordLatency("camera.release_ms",
+                        SystemClock.elapsedRealtime() - releaseStart));
+                boolean headStart = mFacePP.getRemainingInitMs() <= CAMERA_HEAD_START_MS;
+                // Engine prepare overlaps the camera release, and the end of the engine load when that is close.
+                CompletableFuture<Void> engine = awaitEngine().thenAcceptAsync(ready -> {
+                    synchronized (mAuthLock) {
+                        if (mAuthController != controller) return;
+                    }
+                    mFacePP.compareStart();
+                    prepared.set(true);
+                }, mControl);
+                engine.whenCompleteAsync((v, t) -> {
+                    if (t == null) return;
+                    synchronized (mAuthLock) {
+                        if (mAuthController != controller) return;
+                    }
+                    stopAuthenticateInternal(false);
+                    notifyError(receiverObject, 1, 0);
+                }, mControl);
+                if (!headStart) {
+                    FaceMetrics.getInstance().increment("auth.start.engine_wait");
+                    released = released.thenCombine(engine, (a, b) -> null);
+                }
+                released.thenRunAsync(() -> {
+                    synchronized (mAuthLock) {
+                        // Cancelled while the previous session was still closing.
+                        if (mAuthController != controller) return;
+                    }
+                    try {
+                        controller.start(FRONT_CAMERA_ID, mDummySurface);
+                    } catch (Throwable t) {
+                        stopAuthenticateInternal(false);
+                        notifyError(receiverObject, 1, 0);
+                    }
+                }, mControl);
             } catch (Throwable t) {
                 forceReleaseCamera();
                 notifyError(receiverObject, 1, 0);
@@ -213,23 +361,85 @@ public class FaceAuthBridge {
     }
 
     private void stopAuthenticateInternal() {
+        stopAuthenticateInternal(true);
+    }
+
+    /**
+     * Ends the running authentication. With {@code allowStandby} a healthy
+     * session is paused and parked in standby instead of being torn down.
+     */
+    private void stopAuthenticateInternal(boolean allowStandby) {
         try {
-            mFacePP.compareStop();
-            if (mAuthController != null) {
-                mAuthController.stop();
+            CameraFaceAuthController controller;
+            synchronized (mAuthLock) {
+                controller = mAuthController;
                 mAuthController = null;
+                // A late cancel after the session already went to standby.
+                if (controller == null && mStandbyController != null) return;
+                if (allowStandby && controller != null && controller.pause()) {
+                    mStandbyController = controller;
+                    if (mStandby.enter()) return;
+                    mStandbyController = null;
+                }
             }
+            mFacePP.compareStop();
+            if (controller != null) controller.stop();
             forceReleaseCamera();
         } catch (Throwable t) {}
     }
 
-    private void forceReleaseCamera() {
-        CameraService.closeCamera(null);
+    /** Ends standby early, e.g. before enrollment needs the camera and engine. */
+    private void leaveStandby(String reason) {
+        mStandby.release(reason);
+    }
+
+    private void releaseStandby() {
+        CameraFaceAuthController controller;
+        synchronized (mAuthLock) {
+            controller = mStandbyController;
+            mStandbyController = null;
+        }
+        if (controller == null) return;
+        try {
+            mFacePP.compareStop();
+            controller.stop();
+        } catch (Throwable t) {
+            Log.e(TAG, "Standby release failed", t);
+        }
+        Log.d(TAG, FaceMetrics.getInstance().dump());
+    }
+
+    /**
+     * Completes once the engine is loaded, or exceptionally if loading failed or
+     * took longer than {@link #ENGINE_READY_TIMEOUT_MS}. Time spent waiting is
+     * recorded as engine.wait_ms.
+     */
+    private CompletableFuture<Boolean> awaitEngine() {
+        if (mFacePP.isReady()) return CompletableFuture.completedFuture(true);
+        final long start = SystemClock.elapsedRealtime();
+        return mFacePP.initAsync().orTimeout(ENGINE_READY_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .handle((ready, t) -> {
+                    long waited = SystemClock.elapsedRealtime() - start;
+                    if (t != null || !Boolean.TRUE.equals(ready)) {
+                        Log.e(TAG, "Engine not ready after " + waited + " ms", t);
+                        FaceMetrics.getInstance().increment(t instanceof TimeoutException ? "engine.ready_timeout" : "engine.ready_failed");
+                        throw new IllegalStateException("Engine not ready", t);
+                    }
+                    FaceMetrics.getInstance().recordLatency("engine.wait_ms", waited);
+                    return true;
+                });
+    }
+
+    /** Closes whatever holds the camera; the future completes once it is released. */
+    private CompletableFuture<Void> forceReleaseCamera() {
+        leaveStandby("release");
+        return CameraService.closeCamera(null);
     }
 
     public void remove(final int userId, final int faceId, final Object receiver) {
         Log.d(TAG, "Face removal requested. ID: " + faceId);
-        mHandler.post(() -> {
+        mControl.execute(() -> {
+            leaveStandby("remove");
             notifySystemUIonFaceChanged(false);
             mFacePP.deleteFeature(faceId); 
             notifyRemoved(receiver, faceId, userId, 0);
@@ -255,92 +465,105 @@ public class FaceAuthBridge {
     }
 
     // --- REFLECTION HELPERS ---
+    // Binder calls go out on the callback thread in the order they were raised.
     
     private void notifyChallengeGenerated(Object receiver, int sensorId, int userId, long challenge) {
-        try {
-            Method m = receiver.getClass().getMethod("onChallengeGenerated", int.class, int.class, long.class);
-            m.invoke(receiver, sensorId, userId, challenge);
-        } catch (Exception e) {}
+        mCallbacks.execute(() -> {
+            try {
+                Method m = receiver.getClass().getMethod("onChallengeGenerated", int.class, int.class, long.class);
+                m.invoke(receiver, sensorId, userId, challenge);
+            } catch (Exception e) {}
+        });
     }
     
     private void notifyChallengeRevoked(Object receiver, int sensorId, int userId, long challenge) {}
 
     private void notifyRemoved(Object receiver, int faceId, int userId, int remaining) {
-        try {
-            Class<?> faceClass = Class.forName("android.hardware.face.Face");
-            java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-            Object faceObj = ctor.newInstance("", faceId, 0L);
-            Method m = receiver.getClass().getMethod("onRemoved", faceClass, int.class);
-            m.invoke(receiver, faceObj, remaining);
-        } catch (Exception e) {}
+        mCallbacks.execute(() -> {
+            try {
+                Class<?> faceClass = Class.forName("android.hardware.face.Face");
+                java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
+                Object faceObj = ctor.newInstance("", faceId, 0L);
+                Method m = receiver.getClass().getMethod("onRemoved", faceClass, int.class);
+                m.invoke(receiver, faceObj, remaining);
+            } catch (Exception e) {}
+        });
     }
 
     private void notifyAcquired(Object receiver, int userId, int acquiredInfo, int vendorCode) {
-        try {
+        mCallbacks.execute(() -> {
             try {
-                Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class, int.class);
-                m.invoke(receiver, 0, acquiredInfo, vendorCode);
-            } catch (NoSuchMethodException e) {
-                Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class);
-                m.invoke(receiver, acquiredInfo, vendorCode);
-            }
-        } catch (Exception e) {}
+                try {
+                    Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class, int.class);
+                    m.invoke(receiver, 0, acquiredInfo, vendorCode);
+                } catch (NoSuchMethodException e) {
+                    Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class);
+                    m.invoke(receiver, acquiredInfo, vendorCode);
+                }
+            } catch (Exception e) {}
+        });
     }
 
     private void notifyEnrollResult(Object receiver, int faceId, int userId, int remaining) {
-        try {
-            Class<?> faceClass = Class.forName("android.hardware.face.Face");
-            java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-            Object faceObj = ctor.newInstance("", faceId, 0L);
-            Method m = receiver.getClass().getMethod("onEnrollResult", faceClass, int.class);
-            m.invoke(receiver, faceObj, remaining);
-        } catch (Exception e) {}
+        mCallbacks.execute(() -> {
+            try {
+                Class<?> faceClass = Class.forName("android.hardware.face.Face");
+                java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
+                Object faceObj = ctor.newInstance("", faceId, 0L);
+                Method m = receiver.getClass().getMethod("onEnrollResult", faceClass, int.class);
+                m.invoke(receiver, faceObj, remaining);
+            } catch (Exception e) {}
+        });
     }
 
     private void notifyAuthenticated(Object receiver, int deviceId, int faceId, int userId) {
-        try {
-            Class<?> faceClass = Class.forName("android.hardware.face.Face");
-            java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-            Object faceObj = ctor.newInstance("", faceId, (long)deviceId);
-            Object targetReceiver = receiver;
-            if (receiver.getClass().getName().contains("ClientMonitorCallbackConverter") || 
-                receiver.getClass().getName().contains("Wrapper")) {
-                try {
-                    Field[] fields = receiver.getClass().getDeclaredFields();
-                    for (Field f : fields) {
-                        f.setAccessible(true);
-                        Object val = f.get(receiver);
-                        if (val != null && val.getClass().getName().contains("IFaceServiceReceiver")) {
-                            Log.d(TAG, "Receiver unwrapped successfully: " + val.getClass().getName());
-                            targetReceiver = val;
-                            break;
+        mCallbacks.execute(() -> {
+            try {
+                Class<?> faceClass = Class.forName("android.hardware.face.Face");
+                java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
+                Object faceObj = ctor.newInstance("", faceId, (long)deviceId);
+                Object targetReceiver = receiver;
+                if (receiver.getClass().getName().contains("ClientMonitorCallbackConverter") || 
+                    receiver.getClass().getName().contains("Wrapper")) {
+                    try {
+                        Field[] fields = receiver.getClass().getDeclaredFields();
+                        for (Field f : fields) {
+                            f.setAccessible(true);
+                            Object val = f.get(receiver);
+                            if (val != null && val.getClass().getName().contains("IFaceServiceReceiver")) {
+                                Log.d(TAG, "Receiver unwrapped successfully: " + val.getClass().getName());
+                                targetReceiver = val;
+                                break;
+                            }
                         }
+                    } catch (Exception ex) {
+                        Log.w(TAG, "Receiver unwrapping encountered an exception.", ex);
                     }
-                } catch (Exception ex) {
-                    Log.w(TAG, "Receiver unwrapping encountered an exception.", ex);
                 }
-            }
-            try {
-                Method m = targetReceiver.getClass().getMethod("onAuthenticationSucceeded", faceClass, int.class, boolean.class);
-                m.invoke(targetReceiver, faceObj, userId, true);
-            } catch (NoSuchMethodException e) {
                 try {
-                    Method m = targetReceiver.getClass().getMethod("onAuthenticationSucceeded", faceClass, int.class, byte[].class);
-                    m.invoke(targetReceiver, faceObj, userId, new byte[0]);
-                } catch (Exception ex2) {
-                    Log.e(TAG, "Critical error: Unable to locate callback method on receiver: " + targetReceiver.getClass().getName());
+                    Method m = targetReceiver.getClass().getMethod("onAuthenticationSucceeded", faceClass, int.class, boolean.class);
+                    m.invoke(targetReceiver, faceObj, userId, true);
+                } catch (NoSuchMethodException e) {
+                    try {
+                        Method m = targetReceiver.getClass().getMethod("onAuthenticationSucceeded", faceClass, int.class, byte[].class);
+                        m.invoke(targetReceiver, faceObj, userId, new byte[0]);
+                    } catch (Exception ex2) {
+                        Log.e(TAG, "Critical error: Unable to locate callback method on receiver: " + targetReceiver.getClass().getName());
+                    }
                 }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to invoke authentication callback.", e);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to invoke authentication callback.", e);
-        }
+        });
     }
 
     private void notifyError(Object receiver, int error, int vendorCode) {
-        try {
-            Method m = receiver.getClass().getMethod("onError", int.class, int.class);
-            m.invoke(receiver, error, vendorCode);
-        } catch (Exception e) {}
+        mCallbacks.execute(() -> {
+            try {
+                Method m = receiver.getClass().getMethod("onError", int.class, int.class);
+                m.invoke(receiver, error, vendorCode);
+            } catch (Exception e) {}
+        });
     }
 
     private void notifySystemUIonFaceChanged(boolean isEnrolled) {
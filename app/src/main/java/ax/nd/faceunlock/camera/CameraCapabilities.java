@@ -0,0 +1,172 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * What one camera supports, plus the preview configurations picked for auth
+ * and enrollment. Preview sizes are kept sorted by area, largest first, and
+ * sizes and fps ranges are stored as {width, height} and {min, max} pairs.
+ */
+public class CameraCapabilities {
+    public static final int ENROLL_MIN_SQUARE = 480;
+
+    private final String mKey;
+    private final int mFacing;
+    private final int mOrientation;
+    private final List<int[]> mPreviewSizes;
+    private final List<Integer> mPreviewFormats;
+    private final List<int[]> mFpsRanges;
+    private int[] mAuthRequest;
+    private int[] mAuthSize;
+    private int[] mEnrollSize;
+
+    /** @param key backend name and camera id, e.g. "camera1:1" */
+    public CameraCapabilities(String key, int facing, int orientation,
+                              List<int[]> previewSizes, List<Integer> previewFormats, List<int[]> fpsRanges) {
+        mKey = key;
+        mFacing = facing;
+        mOrientation = orientation;
+        mPreviewSizes = new ArrayList<>(previewSizes);
+        Collections.sort(mPreviewSizes, (a, b) -> b[0] * b[1] - a[0] * a[1]);
+        mPreviewFormats = new ArrayList<>(previewFormats);
+        mFpsRanges = new ArrayList<>(fpsRanges);
+    }
+
+    public static String key(String backend, int cameraId) {
+        return backend + ":" + cameraId;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public int getFacing() {
+        return mFacing;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public List<int[]> getPreviewSizes() {
+        return Collections.unmodifiableList(mPreviewSizes);
+    }
+
+    public List<Integer> getPreviewFormats() {
+        return Collections.unmodifiableList(mPreviewFormats);
+    }
+
+    public List<int[]> getFpsRanges() {
+        return Collections.unmodifiableList(mFpsRanges);
+    }
+
+    /** Exact match, else the size whose area is closest to the request; memoized per request. */
+    public synchronized int[] getAuthSize(int width, int height) {
+        if (mAuthSize == null || mAuthRequest[0] != width || mAuthRequest[1] != height) {
+            mAuthRequest = new int[] {width, height};
+            mAuthSize = nearestSize(mPreviewSizes, width, height);
+        }
+        return mAuthSize;
+    }
+
+    /** Largest square of at least {@link #ENROLL_MIN_SQUARE}, else 640x480, else the largest size. */
+    public synchronized int[] getEnrollSize() {
+        if (mEnrollSize == null) mEnrollSize = enrollSize(mPreviewSizes);
+        return mEnrollSize;
+    }
+
+    public static int[] nearestSize(List<int[]> sizes, int width, int height) {
+        int[] best = null;
+        long minDiff = Long.MAX_VALUE;
+        for (int[] size : sizes) {
+            if (size[0] == width && size[1] == height) return size;
+            long diff = Math.abs((long) size[0] * size[1] - (long) width * height);
+            if (diff < minDiff) {
+                minDiff = diff;
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /** {@code sizes} must be sorted largest first. */
+    public static int[] enrollSize(List<int[]> sizes) {
+        for (int[] size : sizes) {
+            if (size[0] == size[1] && size[0] >= ENROLL_MIN_SQUARE) return size;
+        }
+        for (int[] size : sizes) {
+            if (size[0] == 640 && size[1] == 480) return size;
+        }
+        return sizes.isEmpty() ? null : sizes.get(0);
+    }
+
+    void writeTo(Properties props) {
+        String prefix = mKey + ".";
+        props.setProperty(prefix + "facing", String.valueOf(mFacing));
+        props.setProperty(prefix + "orientation", String.valueOf(mOrientation));
+        props.setProperty(prefix + "sizes", joinPairs(mPreviewSizes, 'x'));
+        props.setProperty(prefix + "fps", joinPairs(mFpsRanges, '-'));
+        StringBuilder formats = new StringBuilder();
+        for (Integer format : mPreviewFormats) {
+            if (formats.length() > 0) formats.append(',');
+            formats.append(format);
+        }
+        props.setProperty(prefix + "formats", formats.toString());
+        int[] enroll = getEnrollSize();
+        if (enroll != null) props.setProperty(prefix + "enroll", enroll[0] + "x" + enroll[1]);
+        if (mAuthSize != null) {
+            props.setProperty(prefix + "auth", mAuthRequest[0] + "x" + mAuthRequest[1] + "=" + mAuthSize[0] + "x" + mAuthSize[1]);
+        }
+    }
+
+    /** Returns null if {@code props} has no complete entry for {@code key}. */
+    static CameraCapabilities readFrom(Properties props, String key) {
+        String prefix = key + ".";
+        String sizes = props.getProperty(prefix + "sizes");
+        if (sizes == null) return null;
+        try {
+            List<Integer> formats = new ArrayList<>();
+            String formatList = props.getProperty(prefix + "formats", "");
+            for (String format : formatList.split(",")) {
+                if (!format.isEmpty()) formats.add(Integer.parseInt(format));
+            }
+            CameraCapabilities caps = new CameraCapabilities(key,
+                    Integer.parseInt(props.getProperty(prefix + "facing", "0")),
+                    Integer.parseInt(props.getProperty(prefix + "orientation", "0")),
+                    parsePairs(sizes, 'x'), formats, parsePairs(props.getProperty(prefix + "fps", ""), '-'));
+            String enroll = props.getProperty(prefix + "enroll");
+            if (enroll != null) caps.mEnrollSize = parsePairs(enroll, 'x').get(0);
+            String auth = props.getProperty(prefix + "auth");
+            if (auth != null) {
+                String[] parts = auth.split("=");
+                caps.mAuthRequest = parsePairs(parts[0], 'x').get(0);
+                caps.mAuthSize = parsePairs(parts[1], 'x').get(0);
+            }
+            return caps;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String joinPairs(List<int[]> pairs, char separator) {
+        StringBuilder sb = new StringBuilder();
+        for (int[] pair : pairs) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(pair[0]).append(separator).append(pair[1]);
+        }
+        return sb.toString();
+    }
+
+    private static List<int[]> parsePairs(String value, char separator) {
+        List<int[]> pairs = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (item.isEmpty()) continue;
+            int split = item.indexOf(separator);
+            pairs.add(new int[] {Integer.parseInt(item.substring(0, split)), Integer.parseInt(item.substring(split + 1))});
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,124 @@
+package ax.nd.faceunlock.camera;
+
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+import ax.nd.faceunlock.vendor.FacePPImpl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * {@link CameraCapabilities} of every camera used so far, persisted next to the
+ * face data so a session can skip probing the camera. The file is dropped when
+ * the build fingerprint changes, as a firmware update may change what the HAL
+ * reports.
+ */
+public class CameraCapabilityCache {
+    private static final String TAG = "CameraCapabilityCache";
+    private static final String FILE_NAME = "camera_caps";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static CameraCapabilityCache sInstance;
+
+    private final File mFile;
+    private final String mFingerprint;
+    private final Map<String, CameraCapabilities> mCapabilities = new HashMap<>();
+    private boolean mLoaded = false;
+
+    public static synchronized CameraCapabilityCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new CameraCapabilityCache(new File(FacePPImpl.DATA_PATH, FILE_NAME), Build.FINGERPRINT);
+        }
+        return sInstance;
+    }
+
+    CameraCapabilityCache(File file, String fingerprint) {
+        mFile = file;
+        mFingerprint = fingerprint;
+    }
+
+    /** Cached capabilities for {@code key}, or null if the camera was not probed on this firmware. */
+    public synchronized CameraCapabilities get(String key) {
+        load();
+        return mCapabilities.get(key);
+    }
+
+    public synchronized void put(CameraCapabilities capabilities) {
+        load();
+        mCapabilities.put(capabilities.getKey(), capabilities);
+        save();
+    }
+
+    public synchronized void clear() {
+        mCapabilities.clear();
+        mLoaded = true;
+        if (mFile.exists() && !mFile.delete()) Log.w(TAG, "Failed to delete " + mFile);
+    }
+
+    /** Reads what a camera1 device supports from its (unmodified) parameters. */
+    public static CameraCapabilities probeCamera1(int cameraId, Camera.Parameters params) {
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, info);
+        List<int[]> sizes = new ArrayList<>();
+        List<Camera.Size> supported = params.getSupportedPreviewSizes();
+        if (supported != null) {
+            for (Camera.Size size : supported) sizes.add(new int[] {size.width, size.height});
+        }
+        List<Integer> formats = params.getSupportedPreviewFormats();
+        List<int[]> fpsRanges = params.getSupportedPreviewFpsRange();
+        return new CameraCapabilities(CameraCapabilities.key("camera1", cameraId), info.facing, info.orientation,
+                sizes, formats != null ? formats : new ArrayList<>(), fpsRanges != null ? fpsRanges : new ArrayList<>());
+    }
+
+    private void load() {
+        if (mLoaded) return;
+        mLoaded = true;
+        if (!mFile.exists()) return;
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(mFile)) {
+            props.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mFile, e);
+            return;
+        }
+        if (!mFingerprint.equals(props.getProperty(KEY_FINGERPRINT))) {
+            Log.i(TAG, "Build fingerprint changed, dropping camera capabilities");
+            return;
+        }
+        for (String name : props.stringPropertyNames()) {
+            if (!name.endsWith(".sizes")) continue;
+            String key = name.substring(0, name.length() - ".sizes".length());
+            CameraCapabilities capabilities = CameraCapabilities.readFrom(props, key);
+            if (capabilities != null) mCapabilities.put(key, capabilities);
+        }
+        Log.d(TAG, "Loaded capabilities of " + mCapabilities.size() + " camera(s)");
+    }
+
+    private void save() {
+        Properties props = new Properties();
+        props.setProperty(KEY_FINGERPRINT, mFingerprint);
+        for (CameraCapabilities capabilities : mCapabilities.values()) capabilities.writeTo(props);
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            File dir = mFile.getParentFile();
+            if (dir != null && !dir.exists()) dir.mkdirs();
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, null);
+            }
+            if (!tmp.renameTo(mFile)) throw new IOException("rename failed");
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mFile, e);
+            tmp.delete();
+        }
+    }
+}
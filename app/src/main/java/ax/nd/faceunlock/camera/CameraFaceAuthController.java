@@ -5,52 +5,128 @@ import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.camera.listeners.FaceDetectionResultListener;
+import ax.nd.faceunlock.util.FaceMetrics;
+import ax.nd.faceunlock.util.Util;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 public class CameraFaceAuthController {
     private static final String TAG = "CameraFaceAuthController";
+    // "1" gates frames on the camera's own face detector before they reach the engine.
+    public static final String PROP_HW_FACE_GATE = "persist.sys.oplus.face.hw_gate";
+    // "1" narrows the engine's detect area to the face the camera's detector reports.
+    public static final String PROP_ROI = "persist.sys.oplus.face.roi";
+    // "1" drops dark, blown-out, blurred or moving frames before the engine sees them.
+    public static final String PROP_PREFILTER = "persist.sys.oplus.face.prefilter";
+    // Prefilter thresholds, see FrameQualityFilter.Thresholds#parse.
+    public static final String PROP_PREFILTER_THRESHOLDS = "persist.sys.oplus.face.prefilter.thresholds";
+    private static final int DEFAULT_ORIENTATION = 270;
     private Context mContext;
     private Handler mHandler;
-    private HandlerThread mAuthHandlerThread;
+    // Shared FacePipeline thread; work of an ended session is dropped through mToken.
     private Handler mAuthHandler;
-    private ServiceCallback mCallback;
-    private boolean mIsAuthenticating = false;
+    private volatile FacePipeline.Token mToken;
+    private volatile ServiceCallback mCallback;
+    private volatile boolean mIsAuthenticating = false;
+    // Paused in standby: camera open, preview stopped, buffers still queued.
+    private volatile boolean mIsPaused = false;
+    private volatile boolean mPreviewReady = false;
+    private FrameBufferPool.Session mBufferSession;
+    // CameraService session of the running (or paused) authentication.
+    private volatile int mCameraSession = 0;
+    private CameraListener mCloseListener;
+    private volatile FrameMailbox mMailbox;
+    private volatile FrameRateGovernor mGovernor;
+    private volatile FaceDetectionGate mGate;
+    private volatile DetectAreaTracker mTracker;
+    private volatile FrameQualityFilter mFilter;
+    private int mOrientation = DEFAULT_ORIENTATION;
+    private int mCameraId;
+    private final CompareBatchPolicy mBatchPolicy;
+    // Frames held for the next batched compare; auth thread only.
+    private byte[][] mBatch;
+    private int mBatchCount = 0;
+    private long mCycleStart = 0;
+    private final int mCompareWorkers;
+    // Shared FacePipeline pool that runs compares side by side when mCompareWorkers > 1.
+    // Set and cleared from the control thread; the auth thread reads it once per drain.
+    private volatile ExecutorService mCompareExecutor;
+    // Compares running on mCompareExecutor; auth thread only.
+    private int mInFlight = 0;
+
+    private static final int BUFFER_COUNT = 3;
+    private static final int MAILBOX_CAPACITY = 2;
+    private static final long MAX_FRAME_AGE_MS = 150;
+    private static final int AUTH_PREVIEW_WIDTH = 640;
+    private static final int AUTH_PREVIEW_HEIGHT = 480;
 
     private int mWidth = 640;
     private int mHeight = 480;
 
     public interface ServiceCallback {
         int handlePreviewData(byte[] data, int width, int height);
+        /** Compares {@code count} consecutive frames in one engine call. */
+        default int handlePreviewBatch(byte[][] frames, int count, int width, int height) {
+            int res = -1;
+            for (int i = 0; i < count && res != 0; i++) res = handlePreviewData(frames[i], width, height);
+            return res;
+        }
         void setDetectArea(Camera.Size size);
+        /** Engine detect area; {@code fullArea} is the whole frame in the same space. */
+        default void setDetectArea(int[] area, int[] fullArea) {}
         void onTimeout(boolean b);
         void onCameraError();
     }
 
     public CameraFaceAuthController(Context context, ServiceCallback callback) {
+        this(context, callback, new CompareBatchPolicy(1));
+    }
+
+    /** @param batchPolicy decides how many frames each compare call gets; may be shared across sessions */
+    public CameraFaceAuthController(Context context, ServiceCallback callback, CompareBatchPolicy batchPolicy) {
+        this(context, callback, batchPolicy, 1);
+    }
+
+    /**
+     * @param compareWorkers consecutive frames compared side by side; above 1 the callback's
+     *                       handlePreviewData must be thread-safe and batching is not used
+     */
+    public CameraFaceAuthController(Context context, ServiceCallback callback, CompareBatchPolicy batchPolicy,
+                                    int compareWorkers) {
         mContext = context;
         mCallback = callback;
+        mBatchPolicy = batchPolicy;
+        mCompareWorkers = Math.max(1, compareWorkers);
         mHandler = new Handler(Looper.getMainLooper());
     }
 
     public void start(int cameraId, SurfaceTexture dummySurface) {
         Log.d(TAG, "Starting Auth Camera...");
-        if (mIsAuthenticating) stop();
+        if (mIsAuthenticating || mIsPaused) stop();
         mIsAuthenticating = true;
+        mPreviewReady = false;
+        mCameraId = cameraId;
+        mBufferSession = FrameBufferPool.getInstance().openSession("auth");
         
-        mAuthHandlerThread = new HandlerThread("face_auth_thread");
-        mAuthHandlerThread.start();
-        mAuthHandler = new Handler(mAuthHandlerThread.getLooper());
+        final FacePipeline.Token token = new FacePipeline.Token();
+        mToken = token;
+        mAuthHandler = FacePipeline.getInstance().getAuthHandler();
+        // Compares of an earlier session on this controller never report back.
+        mAuthHandler.post(token.wrap(() -> mInFlight = 0));
+        if (mCompareWorkers > 1) {
+            mCompareExecutor = FacePipeline.getInstance().getCompareExecutor(mCompareWorkers);
+        }
 
-        CameraService.openCamera(cameraId, new ErrorCallbackListener() {
+        mCameraSession = CameraService.newSession();
+        CameraService.openCamera(mCameraSession, cameraId, new ErrorCallbackListener() {
             @Override
             public void onEventCallback(int i, Object value) {
                 Log.e(TAG, "Auth Camera Open Error: " + i);
@@ -59,24 +135,18 @@ public class CameraFaceAuthController {
         }, new CameraListener() {
             @Override
             public void onComplete(Object value) {
-                if (value instanceof Camera) {
-                    Camera camera = (Camera) value;
-                    
-                    setupCameraParameters(camera);
-
-                    CameraService.startPreview(dummySurface, new CameraListener() {
-                        @Override
-                        public void onComplete(Object value) {
-                            Log.d(TAG, "Auth Preview Started (" + mWidth + "x" + mHeight + "). Attaching buffers...");
-                            setupBufferedCallback(camera);
-                        }
-                        @Override
-                        public void onError(Exception e) {
-                            Log.e(TAG, "Auth Preview Start Failed", e);
-                            if (mCallback != null) mCallback.onCameraError();
-                        }
-                    });
-                }
+                CameraService.setPreviewSize(mCameraSession, AUTH_PREVIEW_WIDTH, AUTH_PREVIEW_HEIGHT);
+                CameraService.startPreview(mCameraSession, dummySurface, new CameraListener() {
+                    @Override
+                    public void onComplete(Object value) {
+                        setupBufferedCallback();
+                    }
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Auth Preview Start Failed", e);
+                        if (mCallback != null) mCallback.onCameraError();
+                    }
+                });
             }
             @Override
             public void onError(Exception e) {
@@ -86,96 +156,386 @@ public class CameraFaceAuthController {
         });
     }
 
-    private void setupCameraParameters(Camera camera) {
+    private void setupBufferedCallback() {
         try {
-            Camera.Parameters params = camera.getParameters();
-            List<Camera.Size> supported = params.getSupportedPreviewSizes();
-            
-            Camera.Size bestSize = null;
-            int minDiff = Integer.MAX_VALUE;
-            
-            if (supported != null) {
-                for (Camera.Size size : supported) {
-                    if (size.width == 640 && size.height == 480) {
-                        bestSize = size;
-                        break;
+            mWidth = CameraService.getPreviewWidth();
+            mHeight = CameraService.getPreviewHeight();
+            Log.d(TAG, "Auth Preview Started (" + mWidth + "x" + mHeight + "). Attaching buffers...");
+
+            int bufferSize = mWidth * mHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+            final FrameBufferPool.Session session = mBufferSession;
+            if (session == null || session.isClosed() || bufferSize == 0) return;
+            // A batch holds its frames until the call, so the camera needs spares beyond it.
+            int bufferCount = Math.max(BUFFER_COUNT, Math.max(mBatchPolicy.getMaxWindow(), mCompareWorkers) + 2);
+            mBatch = new byte[mBatchPolicy.getMaxWindow()][];
+            mBatchCount = 0;
+            mCycleStart = 0;
+            for (int i = 0; i < bufferCount; i++) {
+                CameraService.returnCallbackBuffer(session.acquire(bufferSize));
+            }
+
+            CameraCapabilities caps = CameraCapabilityCache.getInstance()
+                    .get(CameraCapabilities.key(CameraService.getBackendName(), mCameraId));
+            final FrameRateGovernor governor = new FrameRateGovernor(caps != null ? caps.getFpsRanges() : null);
+            mGovernor = governor;
+            final FaceDetectionGate gate = "1".equals(Util.getSystemProperty(PROP_HW_FACE_GATE, "0"))
+                    ? new FaceDetectionGate(System.nanoTime()) : null;
+            mGate = gate;
+            mTracker = "1".equals(Util.getSystemProperty(PROP_ROI, "0")) ? new DetectAreaTracker(mWidth, mHeight) : null;
+            mOrientation = caps != null ? caps.getOrientation() : DEFAULT_ORIENTATION;
+            mFilter = "1".equals(Util.getSystemProperty(PROP_PREFILTER, "0"))
+                    ? new FrameQualityFilter(FrameQualityFilter.Thresholds.parse(
+                            Util.getSystemProperty(PROP_PREFILTER_THRESHOLDS, ""))) : null;
+            final FrameMailbox mailbox = new FrameMailbox(MAILBOX_CAPACITY, MAX_FRAME_AGE_MS,
+                    frame -> returnBuffer(session, frame));
+            mMailbox = mailbox;
+            mPreviewReady = true;
+            final FacePipeline.Token token = mToken;
+            final Runnable drain = token.wrap(() -> drainMailbox(session, mailbox, token));
+
+            CameraService.setPreviewCallback(mCameraSession, (i, obj) -> {
+                if (obj instanceof byte[]) {
+                    final byte[] data = (byte[]) obj;
+                    session.checkOut(data);
+                    if (!mIsAuthenticating || mCallback == null || mAuthHandler == null) {
+                        returnBuffer(session, data);
+                        return;
                     }
-                    int diff = Math.abs((size.width * size.height) - (640 * 480));
-                    if (diff < minDiff) {
-                        minDiff = diff;
-                        bestSize = size;
+                    FaceMetrics.getInstance().increment("auth.frames.captured");
+                    long now = System.nanoTime();
+                    if (gate != null && !gate.allow(now)) {
+                        FaceMetrics.getInstance().increment("auth.gate.blocked");
+                        returnBuffer(session, data);
+                        return;
+                    }
+                    if (!governor.onFrameCaptured(now)) {
+                        FaceMetrics.getInstance().increment("auth.frames.skipped");
+                        returnBuffer(session, data);
+                        return;
+                    }
+                    if (mailbox.offer(data)) {
+                        mAuthHandler.post(drain);
                     }
                 }
+            }, true, null);
+            startFaceDetection();
+
+        } catch (Exception e) {
+            Log.e(TAG, "Buffer Setup Failed", e);
+            if (mCallback != null) mCallback.onCameraError();
+        }
+    }
+
+    /** Starts hardware face detection for the gate and the detect-area tracker, if either is on. */
+    private void startFaceDetection() {
+        final FaceDetectionGate gate = mGate;
+        final DetectAreaTracker tracker = mTracker;
+        if ((gate == null || gate.isDisabled()) && tracker == null) return;
+        CameraService.setFaceDetectionListener(mCameraSession, (faces, value) -> {
+            long now = System.nanoTime();
+            FaceDetectionResultListener.FaceData face = (FaceDetectionResultListener.FaceData) value;
+            int score = face != null ? face.mScore : 0;
+            if (gate != null) gate.onFaceDetection(faces, score, now);
+            if (tracker == null) return;
+            if (face != null && score >= FaceDetectionGate.MIN_SCORE) {
+                tracker.onFace(face.mLeft, face.mTop, face.mRight, face.mBottom, now);
+            } else {
+                tracker.onNoFace();
+            }
+        }, new CameraListener() {
+            @Override
+            public void onComplete(Object value) {}
+            @Override
+            public void onError(Exception e) {
+                Log.w(TAG, "Hardware face detection unavailable, using the full frame", e);
+                if (gate != null) gate.disable();
+            }
+        });
+    }
+
+    private void drainMailbox(FrameBufferPool.Session session, FrameMailbox mailbox, FacePipeline.Token token) {
+        // stop() clears the field from the control thread; read it once.
+        final ExecutorService executor = mCompareExecutor;
+        byte[] data;
+        while ((executor == null || mInFlight < mCompareWorkers) && (data = mailbox.take()) != null) {
+            if (mCallback == null || !mIsAuthenticating) {
+                flushBatch(session);
+                returnBuffer(session, data);
+                continue;
+            }
+            if (mCycleStart == 0) mCycleStart = System.nanoTime();
+            FrameQualityFilter filter = mFilter;
+            int reason = filter != null ? filter.check(data, mWidth, mHeight) : FrameQualityFilter.PASS;
+            if (reason != FrameQualityFilter.PASS) {
+                FaceMetrics.getInstance().increment("auth.prefilter." + FrameQualityFilter.REASONS[reason]);
+                returnBuffer(session, data);
+                continue;
+            }
+            if (executor != null) {
+                dispatch(executor, session, mailbox, data, token);
+                continue;
             }
+            int window = mBatchPolicy.getWindow();
+            if (window > 1) {
+                mBatch[mBatchCount++] = data;
+                if (mBatchCount < window) continue;
+                compare(session, mBatchCount);
+            } else {
+                flushBatch(session);
+                mBatch[0] = data;
+                compare(session, 1);
+            }
+        }
+    }
 
-            if (bestSize != null) {
-                mWidth = bestSize.width;
-                mHeight = bestSize.height;
-                params.setPreviewSize(mWidth, mHeight);
-                Log.i(TAG, "Requested Camera Size: " + mWidth + "x" + mHeight);
+    /** Runs one compare over the first {@code count} held frames and gives them back to the camera. */
+    private void compare(FrameBufferPool.Session session, int count) {
+        long cpuStart = SystemClock.currentThreadTimeMillis();
+        long wallStart = System.nanoTime();
+        try {
+            ServiceCallback callback = mCallback;
+            if (callback == null) return;
+            DetectAreaTracker tracker = mTracker;
+            if (tracker != null) updateDetectArea(callback, tracker);
+            if (count == 1) {
+                callback.handlePreviewData(mBatch[0], mWidth, mHeight);
+            } else {
+                callback.handlePreviewBatch(mBatch, count, mWidth, mHeight);
             }
-            
-            params.setPreviewFormat(ImageFormat.NV21);
-            
-            camera.setParameters(params);
-            
         } catch (Exception e) {
-            Log.e(TAG, "Failed to set camera parameters", e);
+            Log.e(TAG, "Auth loop error", e);
+        } finally {
+            long end = System.nanoTime();
+            String mode = count == 1 ? "compare.single" : "compare.batch";
+            FaceMetrics metrics = FaceMetrics.getInstance();
+            metrics.recordLatency(mode + ".wall_ms", (end - wallStart) / 1000000);
+            metrics.recordLatency(mode + ".cpu_ms", SystemClock.currentThreadTimeMillis() - cpuStart);
+            metrics.add("auth.frames.processed", count);
+            FrameRateGovernor governor = mGovernor;
+            int[] range = governor != null ? governor.onCompare(count, end - wallStart) : null;
+            if (range != null) {
+                metrics.increment("auth.fps_range.changes");
+                Log.d(TAG, "Preview fps range " + range[0] + "-" + range[1] + ", " + governor.dump());
+                CameraService.setPreviewFpsRange(mCameraSession, range[0], range[1], null);
+            }
+            mBatchPolicy.onCycle(count, end - mCycleStart);
+            mCycleStart = end;
+            for (int i = 0; i < count; i++) {
+                returnBuffer(session, mBatch[i]);
+                mBatch[i] = null;
+            }
+            mBatchCount = 0;
         }
     }
 
-    private void setupBufferedCallback(Camera camera) {
+    /** Hands one frame to a compare worker; the worker gives it back to the camera. */
+    private void dispatch(ExecutorService executor, FrameBufferPool.Session session, FrameMailbox mailbox, byte[] data,
+                          FacePipeline.Token token) {
+        ServiceCallback callback = mCallback;
+        DetectAreaTracker tracker = mTracker;
+        if (callback != null && tracker != null) updateDetectArea(callback, tracker);
+        final Handler authHandler = mAuthHandler;
+        mInFlight++;
         try {
-            Camera.Parameters params = camera.getParameters();
-            Camera.Size size = params.getPreviewSize();
-            mWidth = size.width;
-            mHeight = size.height;
-
-            int format = params.getPreviewFormat();
-            int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
-            int bufferSize = (mWidth * mHeight * bitsPerPixel) / 8;
-            camera.addCallbackBuffer(new byte[bufferSize]);
-            camera.addCallbackBuffer(new byte[bufferSize]);
-            camera.addCallbackBuffer(new byte[bufferSize]);
-
-            CameraService.setPreviewCallback((i, obj) -> {
-                if (!mIsAuthenticating || mCallback == null) return;
-                
-                if (obj instanceof byte[]) {
-                    final byte[] data = (byte[]) obj;
-                    
-                    if (mAuthHandler != null) {
-                        mAuthHandler.post(() -> {
-                            try {
-                                if (mCallback == null || !mIsAuthenticating) return;
-
-                                mCallback.handlePreviewData(data, mWidth, mHeight);
-                                
-                                if (mIsAuthenticating && camera != null) {
-                                    camera.addCallbackBuffer(data);
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Auth loop error", e);
-                            }
-                        });
-                    }
-                }
-            }, true, null);
+            executor.execute(() -> {
+                compareOnWorker(session, data, token);
+                authHandler.post(token.wrap(() -> {
+                    mInFlight--;
+                    drainMailbox(session, mailbox, token);
+                }));
+            });
+        } catch (RejectedExecutionException e) {
+            mInFlight--;
+            returnBuffer(session, data);
+        }
+    }
 
+    private void compareOnWorker(FrameBufferPool.Session session, byte[] data, FacePipeline.Token token) {
+        ServiceCallback callback = mCallback;
+        // Another worker already succeeded, or the session ended.
+        if (callback == null || !mIsAuthenticating || token.isCancelled()) {
+            FaceMetrics.getInstance().increment("auth.frames.cancelled");
+            returnBuffer(session, data);
+            return;
+        }
+        long cpuStart = SystemClock.currentThreadTimeMillis();
+        long wallStart = System.nanoTime();
+        try {
+            callback.handlePreviewData(data, mWidth, mHeight);
         } catch (Exception e) {
-            Log.e(TAG, "Buffer Setup Failed", e);
-            if (mCallback != null) mCallback.onCameraError();
+            Log.e(TAG, "Auth worker error", e);
+        } finally {
+            long end = System.nanoTime();
+            FaceMetrics metrics = FaceMetrics.getInstance();
+            metrics.recordLatency("compare.parallel.wall_ms", (end - wallStart) / 1000000);
+            metrics.recordLatency("compare.parallel.cpu_ms", SystemClock.currentThreadTimeMillis() - cpuStart);
+            metrics.increment("auth.frames.processed");
+            FrameRateGovernor governor = mGovernor;
+            // The workers together take a frame every latency / workers.
+            int[] range = governor != null ? governor.onCompare(1, (end - wallStart) / mCompareWorkers) : null;
+            if (range != null) {
+                metrics.increment("auth.fps_range.changes");
+                CameraService.setPreviewFpsRange(mCameraSession, range[0], range[1], null);
+            }
+            returnBuffer(session, data);
+        }
+    }
+
+    private void updateDetectArea(ServiceCallback callback, DetectAreaTracker tracker) {
+        int[] area = tracker.update(System.nanoTime());
+        FaceMetrics metrics = FaceMetrics.getInstance();
+        metrics.increment("auth.roi.frames");
+        if (tracker.isReduced()) metrics.increment("auth.roi.reduced");
+        if (area == null) return;
+        metrics.increment("auth.roi.updates");
+        int[] full = DetectAreaTracker.toEngineArea(new int[] {0, 0, mWidth, mHeight}, mWidth, mHeight, mOrientation);
+        callback.setDetectArea(DetectAreaTracker.toEngineArea(area, mWidth, mHeight, mOrientation), full);
+    }
+
+    /** Returns frames of an unfinished batch, e.g. after the window shrank or the session paused. */
+    private void flushBatch(FrameBufferPool.Session session) {
+        for (int i = 0; i < mBatchCount; i++) {
+            returnBuffer(session, mBatch[i]);
+            mBatch[i] = null;
+        }
+        mBatchCount = 0;
+    }
+
+    private void returnBuffer(FrameBufferPool.Session session, byte[] data) {
+        if (session.checkIn(data) && (mIsAuthenticating || mIsPaused)) {
+            CameraService.returnCallbackBuffer(data);
+        }
+    }
+
+    /** Frame mailbox of the running session, for its dropped/processed and frame-age counters. */
+    public FrameMailbox getMailbox() {
+        return mMailbox;
+    }
+
+    /** Frame-rate governor of the running session, for its captured/skipped/processed counters. */
+    public FrameRateGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    /** Face-detection gate of the running session, or null when gating is off. */
+    public FaceDetectionGate getGate() {
+        return mGate;
+    }
+
+    /** Detect-area tracker of the running session, or null when ROI tracking is off. */
+    public DetectAreaTracker getTracker() {
+        return mTracker;
+    }
+
+    /** Frame quality prefilter of the running session, or null when it is off. */
+    public FrameQualityFilter getFilter() {
+        return mFilter;
+    }
+
+    public boolean isPreviewReady() {
+        return mPreviewReady;
+    }
+
+    /**
+     * Stops the preview but keeps the camera, the frame buffers and the session's
+     * place on the worker threads for {@link #resume}. Returns false, without pausing, if the preview
+     * never came up; the caller should {@link #stop()} instead.
+     */
+    public boolean pause() {
+        if (!mIsAuthenticating || !mPreviewReady) return false;
+        Log.d(TAG, "Pausing Auth Camera");
+        mIsPaused = true;
+        mIsAuthenticating = false;
+        mCallback = null;
+        final FrameMailbox mailbox = mMailbox;
+        if (mailbox != null) {
+            mailbox.clear();
+            Log.d(TAG, mailbox.dump());
+        }
+        final FrameRateGovernor governor = mGovernor;
+        if (governor != null) Log.d(TAG, governor.dump());
+        final FaceDetectionGate gate = mGate;
+        if (gate != null) Log.d(TAG, gate.dump());
+        final DetectAreaTracker tracker = mTracker;
+        if (tracker != null) Log.d(TAG, tracker.dump());
+        final FrameQualityFilter filter = mFilter;
+        if (filter != null) Log.d(TAG, filter.dump());
+        final FrameBufferPool.Session session = mBufferSession;
+        final FacePipeline.Token token = mToken;
+        if (mAuthHandler != null && session != null && token != null) {
+            mAuthHandler.post(token.wrap(() -> {
+                flushBatch(session);
+                mCycleStart = 0;
+            }));
         }
+        CameraService.stopPreview(mCameraSession, null);
+        return true;
+    }
+
+    /** Restarts the preview of a paused session with a new callback. */
+    public void resume(ServiceCallback callback, SurfaceTexture dummySurface) {
+        Log.d(TAG, "Resuming Auth Camera");
+        mCallback = callback;
+        mIsAuthenticating = true;
+        mIsPaused = false;
+        final FrameQualityFilter filter = mFilter;
+        if (filter != null) filter.reset();
+        CameraService.startPreview(mCameraSession, dummySurface, new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                // Stopping the preview stopped face detection as well.
+                startFaceDetection();
+            }
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Auth Preview Resume Failed", e);
+                ServiceCallback cb = mCallback;
+                if (cb != null) cb.onCameraError();
+            }
+        });
     }
 
     public void stop() {
         Log.d(TAG, "Stopping Auth Camera");
         mIsAuthenticating = false;
+        mIsPaused = false;
+        mPreviewReady = false;
         mCallback = null;
-        CameraService.closeCamera(null);
-        if (mAuthHandlerThread != null) {
-            mAuthHandlerThread.quitSafely();
-            mAuthHandlerThread = null;
+        final FrameMailbox mailbox = mMailbox;
+        mMailbox = null;
+        if (mailbox != null) {
+            mailbox.clear();
+            Log.d(TAG, mailbox.dump());
+        }
+        final FrameRateGovernor governor = mGovernor;
+        if (governor != null) Log.d(TAG, governor.dump());
+        final FaceDetectionGate gate = mGate;
+        if (gate != null) Log.d(TAG, gate.dump());
+        final DetectAreaTracker tracker = mTracker;
+        if (tracker != null) Log.d(TAG, tracker.dump());
+        final FrameQualityFilter filter = mFilter;
+        if (filter != null) Log.d(TAG, filter.dump());
+        final FrameBufferPool.Session session = mBufferSession;
+        mBufferSession = null;
+        mCloseListener = new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                if (session != null) session.close();
+                Log.d(TAG, FrameBufferPool.getInstance().dump());
+            }
+            @Override
+            public void onError(Exception e) {}
+        };
+        // Never opened: nothing of ours can be in a camera queue.
+        if (mCameraSession > 0) {
+            CameraService.closeCamera(mCameraSession, mCloseListener);
+        } else {
+            mCloseListener.onComplete(null);
         }
+        // The threads stay; queued work of this session is dropped and running
+        // compares cannot be interrupted, they see the cleared callback.
+        final FacePipeline.Token token = mToken;
+        if (token != null) token.cancel();
+        mCompareExecutor = null;
     }
 }
\ No newline at end of file
@@ -1,9 +1,9 @@
 package ax.nd.faceunlock.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
@@ -16,8 +16,9 @@ public class CameraFaceEnrollController {
     private static CameraFaceEnrollController sInstance;
     private Context mContext;
     private Handler mHandler;
-    private HandlerThread mEnrollHandlerThread;
+    // Shared FacePipeline thread; frames of an ended session are dropped through mToken.
     private Handler mEnrollHandler;
+    private volatile FacePipeline.Token mToken;
     private volatile CameraCallback mCallback;
     private volatile boolean mIsEnrolling = false;
 
@@ -26,9 +27,17 @@ public class CameraFaceEnrollController {
 
     private int mTargetWidth = 640;
     private int mTargetHeight = 480;
-    private boolean mUseDownscale = false;
     
-    private byte[] mProcessedBuffer;
+    private static final int SOURCE_BUFFER_COUNT = 3;
+    // Single-threaded: parallel bands have not measured faster than one band yet.
+    private static final NV21Resampler sResampler = new NV21Resampler(1);
+
+    private volatile byte[][] mProcessedBuffers;
+    private int mNextProcessedBuffer = 0;
+    private FrameBufferPool.Session mBufferSession;
+    // CameraService session of the running enrollment.
+    private volatile int mCameraSession = 0;
+    private CameraListener mCloseListener;
 
     public interface CameraCallback {
         int handleSaveFeature(byte[] data, int width, int height, int angle);
@@ -61,12 +70,13 @@ public class CameraFaceEnrollController {
         
         mSrcWidth = 0; 
         mSrcHeight = 0;
+        mBufferSession = FrameBufferPool.getInstance().openSession("enroll");
 
-        mEnrollHandlerThread = new HandlerThread("face_enroll_thread");
-        mEnrollHandlerThread.start();
-        mEnrollHandler = new Handler(mEnrollHandlerThread.getLooper());
+        mToken = new FacePipeline.Token();
+        mEnrollHandler = FacePipeline.getInstance().getEnrollHandler();
 
-        CameraService.openCamera(cameraId, new ErrorCallbackListener() {
+        mCameraSession = CameraService.newSession();
+        CameraService.openCamera(mCameraSession, cameraId, new ErrorCallbackListener() {
             @Override
             public void onEventCallback(int i, Object value) {
                 Log.e(TAG, "Camera open error: " + i);
@@ -85,7 +95,7 @@ public class CameraFaceEnrollController {
     }
 
     private void startConfiguredPreview(Surface surface) {
-        CameraService.configureAndStartPreview(surface, new CameraListener() {
+        CameraService.configureAndStartPreview(mCameraSession, surface, new CameraListener() {
             @Override
             public void onComplete(Object value) {
                 Log.d(TAG, "Preview Started. Attaching Callback...");
@@ -100,45 +110,74 @@ public class CameraFaceEnrollController {
     }
 
     private void attachPreviewCallback() {
-        CameraService.setPreviewCallback((i, obj) -> {
+        final FrameBufferPool.Session session = mBufferSession;
+        if (session == null) return;
+
+        int bufferSize = CameraService.getPreviewWidth() * CameraService.getPreviewHeight()
+                * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        detectSourceResolution(bufferSize);
+        if (mSrcWidth == 0) {
+            if (mCallback != null) mCallback.onCameraError();
+            return;
+        }
+
+        for (int i = 0; i < SOURCE_BUFFER_COUNT; i++) {
+            CameraService.addCallbackBuffer(mCameraSession, session.acquire(bufferSize), null);
+        }
+
+        final FacePipeline.Token token = mToken;
+        CameraService.setPreviewCallback(mCameraSession, (i, obj) -> {
+            if (!(obj instanceof byte[])) return;
+            final byte[] srcData = (byte[]) obj;
+            session.checkOut(srcData);
+
             final CameraCallback callback = mCallback;
-            if (!mIsEnrolling || callback == null) return;
-
-            if (obj instanceof byte[]) {
-                final byte[] srcData = (byte[]) obj;
-
-                if (mSrcWidth == 0) {
-                     detectSourceResolution(srcData.length);
-                }
-                
-                if (mSrcWidth == 0) return;
-
-                if (mEnrollHandler != null) {
-                    mEnrollHandler.post(() -> {
-                        try {
-                            byte[] destBuffer = mProcessedBuffer;
-                            
-                            if (callback == null || mSrcWidth == 0 || destBuffer == null) return;
-                            
-                            if (mUseDownscale) {
-                                downscaleNV21(srcData, mSrcWidth, mSrcHeight, destBuffer, mTargetWidth, mTargetHeight);
-                            } else {
-                                cropNV21(srcData, mSrcWidth, mSrcHeight, destBuffer, mTargetWidth, mTargetHeight);
-                            }
-                            
-                            int res = callback.handleSaveFeature(destBuffer, mTargetWidth, mTargetHeight, 90);
-                            callback.handleSaveFeatureResult(res);
-                            
-                        } catch (Exception e) {
-                            Log.e(TAG, "Enroll processing error", e);
-                        }
-                    });
-                }
+            if (!mIsEnrolling || callback == null || mEnrollHandler == null
+                    || !mEnrollHandler.post(() -> processFrame(session, srcData, callback, token))) {
+                returnSourceBuffer(session, srcData);
             }
-        }, false, null);
+        }, true, null);
+    }
+
+    private void processFrame(FrameBufferPool.Session session, byte[] srcData, CameraCallback callback,
+                              FacePipeline.Token token) {
+        byte[] destBuffer = null;
+        try {
+            byte[][] processed = mProcessedBuffers;
+            // A later session may already own the processed buffers.
+            if (mIsEnrolling && processed != null && !token.isCancelled()) {
+                // Alternate between the two output buffers so the next frame is
+                // never preprocessed into the buffer handed to saveFeature last.
+                destBuffer = processed[mNextProcessedBuffer];
+                mNextProcessedBuffer ^= 1;
+                sResampler.resampleCentered(srcData, mSrcWidth, mSrcHeight, destBuffer, mTargetWidth, mTargetHeight);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Enroll preprocessing error", e);
+            destBuffer = null;
+        } finally {
+            // The source frame is no longer needed once it has been cropped/scaled.
+            returnSourceBuffer(session, srcData);
+        }
+
+        if (destBuffer == null) return;
+        try {
+            int res = callback.handleSaveFeature(destBuffer, mTargetWidth, mTargetHeight, 90);
+            callback.handleSaveFeatureResult(res);
+        } catch (Exception e) {
+            Log.e(TAG, "Enroll processing error", e);
+        }
+    }
+
+    private void returnSourceBuffer(FrameBufferPool.Session session, byte[] data) {
+        if (session.checkIn(data) && mIsEnrolling) {
+            CameraService.returnCallbackBuffer(data);
+        }
     }
 
     private void detectSourceResolution(int dataLength) {
+        mTargetWidth = 640;
+        mTargetHeight = 480;
         int pixels = (int)(dataLength / 1.5);
         int sqrt = (int) Math.sqrt(pixels);
         
@@ -147,73 +186,65 @@ public class CameraFaceEnrollController {
             mSrcHeight = sqrt;
             
             if (mSrcWidth >= 800) {
-                mUseDownscale = true;
                 mTargetWidth = mSrcWidth / 2;
                 mTargetHeight = mSrcHeight / 2;
                 Log.i(TAG, "High-Res Square (" + mSrcWidth + "x" + mSrcHeight + ") -> Downscaling to " + mTargetWidth + "x" + mTargetHeight);
             } else {
-                mUseDownscale = false;
                 mTargetWidth = 640;
                 mTargetHeight = 480;
                 Log.i(TAG, "Standard Square (" + mSrcWidth + "x" + mSrcHeight + ") -> Cropping to " + mTargetWidth + "x" + mTargetHeight);
             }
         } 
-        else if (pixels == 307200) { mSrcWidth = 640; mSrcHeight = 480; mUseDownscale = false; } // VGA
-        else if (pixels == 921600) { mSrcWidth = 1280; mSrcHeight = 720; mUseDownscale = false; } // 720p
-        else if (pixels == 2073600) { mSrcWidth = 1920; mSrcHeight = 1080; mUseDownscale = false; } // 1080p
+        else if (pixels == 307200) { mSrcWidth = 640; mSrcHeight = 480; } // VGA
+        else if (pixels == 921600) { mSrcWidth = 1280; mSrcHeight = 720; } // 720p
+        else if (pixels == 2073600) { mSrcWidth = 1920; mSrcHeight = 1080; } // 1080p
         else {
              Log.e(TAG, "Unknown buffer size: " + dataLength);
              return;
         }
         
-        mProcessedBuffer = new byte[mTargetWidth * mTargetHeight * 3 / 2];
-    }
-
-    private void downscaleNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
-        for (int y = 0; y < dstHeight; y++) {
-            for (int x = 0; x < dstWidth; x++) {
-                dest[y * dstWidth + x] = src[(y * 2) * srcWidth + (x * 2)];
-            }
-        }
-        
-        int uvSrcStart = srcWidth * srcHeight;
-        int uvDstStart = dstWidth * dstHeight;
-        for (int y = 0; y < dstHeight / 2; y++) {
-            for (int x = 0; x < dstWidth; x += 2) {
-                int srcIndex = uvSrcStart + (y * 2) * srcWidth + x * 2;
-                int dstIndex = uvDstStart + y * dstWidth + x;
-                
-                dest[dstIndex] = src[srcIndex];     // V
-                dest[dstIndex + 1] = src[srcIndex + 1]; // U
-            }
-        }
-    }
-
-    private void cropNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
-        if (src.length < srcWidth * srcHeight * 3 / 2) return;
-        int xOffset = (srcWidth - dstWidth) / 2;
-        int yOffset = (srcHeight - dstHeight) / 2;
-        if (xOffset % 2 != 0) xOffset--;
-        if (yOffset % 2 != 0) yOffset--;
-
-        for (int i = 0; i < dstHeight; i++) {
-            System.arraycopy(src, (yOffset + i) * srcWidth + xOffset, dest, i * dstWidth, dstWidth);
-        }
-        int uvSrcStart = srcWidth * srcHeight;
-        int uvDstStart = dstWidth * dstHeight;
-        for (int i = 0; i < dstHeight / 2; i++) {
-             System.arraycopy(src, uvSrcStart + (yOffset / 2 + i) * srcWidth + xOffset, dest, uvDstStart + i * dstWidth, dstWidth);
+        FrameBufferPool.Session session = mBufferSession;
+        if (session == null) return;
+        byte[][] processed = new byte[2][];
+        for (int i = 0; i < processed.length; i++) {
+            processed[i] = session.acquire(mTargetWidth * mTargetHeight * 3 / 2);
+            session.checkOut(processed[i]);
         }
+        mNextProcessedBuffer = 0;
+        mProcessedBuffers = processed;
     }
 
     public void stop(CameraCallback callback) {
         mIsEnrolling = false;
         mCallback = null;
-        CameraService.closeCamera(null);
-        if (mEnrollHandlerThread != null) {
-            mEnrollHandlerThread.quitSafely();
-            mEnrollHandlerThread = null;
+        final FrameBufferPool.Session session = mBufferSession;
+        final byte[][] processed = mProcessedBuffers;
+        mBufferSession = null;
+        mProcessedBuffers = null;
+        // Source buffers sit in the camera queue until the close has run.
+        mCloseListener = new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                if (session != null) session.close();
+                Log.d(TAG, FrameBufferPool.getInstance().dump());
+            }
+            @Override
+            public void onError(Exception e) {}
+        };
+        // Never opened: nothing of ours can be in a camera queue.
+        if (mCameraSession > 0) {
+            CameraService.closeCamera(mCameraSession, mCloseListener);
+        } else {
+            mCloseListener.onComplete(null);
         }
-        mProcessedBuffer = null;
+        // Processed buffers are only touched on the enroll thread, so hand them
+        // back from there once any in-flight frame has finished with them.
+        Runnable recycle = () -> {
+            if (session == null || processed == null) return;
+            for (byte[] buffer : processed) session.recycle(buffer);
+        };
+        final FacePipeline.Token token = mToken;
+        if (token != null) token.cancel();
+        if (mEnrollHandler == null || !mEnrollHandler.post(recycle)) recycle.run();
     }
 }
\ No newline at end of file
@@ -11,12 +11,19 @@ import android.util.Log;
 import ax.nd.faceunlock.FaceAuthBridge;
 import ax.nd.faceunlock.camera.CameraRepository;
 import ax.nd.faceunlock.camera.callables.*;
+import ax.nd.faceunlock.camera.capture.Camera1CaptureBackend;
+import ax.nd.faceunlock.camera.capture.CaptureBackend;
 import ax.nd.faceunlock.camera.listeners.*;
 
+import java.util.concurrent.CompletableFuture;
+
 public class CameraService {
+    // Every command, backend switches included, runs in order on the service thread.
     private static final int DEFAULT_MSG_TYPE = 1;
     private final Handler mServiceHandler;
     private HandlerThread mThread;
+    private volatile CaptureBackend mBackend = new Camera1CaptureBackend();
+    private final CameraStateMachine mStateMachine;
 
     private CameraService() {
         mThread = new HandlerThread("CameraServiceThread");
@@ -31,77 +38,227 @@ public class CameraService {
             }
             return true;
         });
+        mStateMachine = new CameraStateMachine(this::addCallable, CameraCallable::runOnUiThread, () -> mBackend);
     }
 
     private static CameraService getInstance() {
         return LazyLoader.INSTANCE;
     }
 
-    public static void openCamera(int i, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
-        getInstance().addCallable(new OpenCameraCallable(i, errorCallbackListener, cameraListener));
+    /**
+     * Switches the capture backend. Queued behind pending commands so a session
+     * that is already running on the old backend is closed there first.
+     */
+    public static void setBackend(CaptureBackend backend) {
+        getInstance().addCallable(() -> {
+            CaptureBackend current = getInstance().mBackend;
+            if (current == backend) return;
+            current.close(null);
+            getInstance().mBackend = backend;
+            states().reset();
+            Log.i("CameraService", "Capture backend: " + backend.getName());
+        });
+    }
+
+    public static String getBackendName() {
+        return backend().getName();
     }
 
-    public static void closeCamera(CameraListener cameraListener) {
-        getInstance().mServiceHandler.removeMessages(DEFAULT_MSG_TYPE);
-        getInstance().addCallable(new CloseCameraCallable(cameraListener));
+    private static CaptureBackend backend() {
+        return getInstance().mBackend;
+    }
+
+    private static CameraStateMachine states() {
+        return getInstance().mStateMachine;
+    }
+
+    public static CameraStateMachine.State getState() {
+        return states().getState();
+    }
+
+    /**
+     * Allocates a session id for {@link #openCamera(int, int, ErrorCallbackListener, CameraListener)}.
+     * Pending opens of older sessions are skipped from here on.
+     */
+    public static int newSession() {
+        return states().newSession();
+    }
+
+    /** Opens the camera for a new session and returns its id. */
+    public static int openCamera(int i, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        int session = newSession();
+        openCamera(session, i, errorCallbackListener, cameraListener);
+        return session;
+    }
+
+    public static void openCamera(int session, int i, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        states().open(session, i, errorCallbackListener, cameraListener);
+    }
+
+    /** Closes the latest session, whichever that is. */
+    public static CompletableFuture<Void> closeCamera(CameraListener cameraListener) {
+        return closeCamera(0, cameraListener);
+    }
+
+    /**
+     * Closes {@code session} and every older one. Commands queued afterwards
+     * (e.g. the next openCamera) run only once the backend close has returned,
+     * so callers never need to wait before reopening; a close followed by a
+     * newer open is coalesced into that open. The future completes after the
+     * device is released and {@code cameraListener} has run.
+     */
+    public static CompletableFuture<Void> closeCamera(int session, CameraListener cameraListener) {
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        states().close(session, new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                try {
+                    if (cameraListener != null) cameraListener.onComplete(value);
+                } finally {
+                    closed.complete(null);
+                }
+            }
+            @Override
+            public void onError(Exception e) {
+                try {
+                    if (cameraListener != null) cameraListener.onError(e);
+                } finally {
+                    closed.complete(null);
+                }
+            }
+        });
+        return closed;
     }
 
     public static void configureAndStartPreview(Surface surface, CameraListener cameraListener) {
-        getInstance().addCallable(new ConfigureAndStartPreviewCallable(surface, cameraListener));
+        configureAndStartPreview(0, surface, cameraListener);
+    }
+
+    public static void configureAndStartPreview(int session, Surface surface, CameraListener cameraListener) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.START_PREVIEW, cameraListener,
+                (backend, l) -> backend.configureAndStartPreview(surface, l));
+    }
+
+    public static void setPreviewSize(int width, int height) {
+        setPreviewSize(0, width, height);
+    }
+
+    public static void setPreviewSize(int session, int width, int height) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.SET_PREVIEW_SIZE, null,
+                (backend, l) -> backend.setPreviewSize(width, height));
+    }
+
+    /** Size of the running preview; only meaningful once the preview has started. */
+    public static int getPreviewWidth() {
+        return backend().getPreviewWidth();
+    }
+
+    public static int getPreviewHeight() {
+        return backend().getPreviewHeight();
     }
 
     public static void startPreview(CameraListener cameraListener) {
+        SurfaceTexture dummy = null;
         try {
             if (FaceAuthBridge.getInstance() != null) {
-                SurfaceTexture dummy = FaceAuthBridge.getInstance().getDummySurface();
-                if (dummy != null) {
-                    getInstance().addCallable(new StartPreviewCallable(dummy, cameraListener));
-                    return;
-                }
+                dummy = FaceAuthBridge.getInstance().getDummySurface();
             }
         } catch (Throwable e) {}
-        getInstance().addCallable(new StartPreviewCallable(cameraListener));
+        startPreview(dummy, cameraListener);
     }
 
     public static void startPreview(SurfaceTexture surfaceTexture, CameraListener cameraListener) {
-        getInstance().addCallable(new StartPreviewCallable(surfaceTexture, cameraListener));
+        startPreview(0, surfaceTexture, cameraListener);
+    }
+
+    public static void startPreview(int session, SurfaceTexture surfaceTexture, CameraListener cameraListener) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.START_PREVIEW, cameraListener,
+                (backend, l) -> backend.startPreview(surfaceTexture, l));
     }
 
     public static void startPreview(SurfaceHolder surfaceHolder, CameraListener cameraListener) {
-        getInstance().addCallable(new StartPreviewCallable(surfaceHolder, cameraListener));
+        states().submit(states().resolve(0), CameraStateMachine.Command.START_PREVIEW, cameraListener,
+                (backend, l) -> backend.startPreview(surfaceHolder, l));
     }
 
     public static void stopPreview(CameraListener cameraListener) {
-        getInstance().addCallable(new StopPreviewCallable(cameraListener));
+        stopPreview(0, cameraListener);
+    }
+
+    public static void stopPreview(int session, CameraListener cameraListener) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.STOP_PREVIEW, cameraListener,
+                (backend, l) -> backend.stopPreview(l));
+    }
+
+    /** Changes the preview fps range of {@code session}; the range comes from its {@link CameraCapabilities}. */
+    public static void setPreviewFpsRange(int session, int min, int max, CameraListener cameraListener) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.SET_FPS_RANGE, cameraListener,
+                (backend, l) -> backend.setPreviewFpsRange(min, max, l));
     }
 
     public static void addCallbackBuffer(byte[] bArr, CameraListener cameraListener) {
-        getInstance().addCallable(new AddCallbackBufferCallable(bArr, cameraListener));
+        addCallbackBuffer(0, bArr, cameraListener);
+    }
+
+    public static void addCallbackBuffer(int session, byte[] bArr, CameraListener cameraListener) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.ADD_CALLBACK_BUFFER, cameraListener,
+                (backend, l) -> {
+                    backend.addCallbackBuffer(bArr);
+                    if (l != null) l.onComplete(null);
+                });
+    }
+
+    /**
+     * Hands a consumed frame back to the running capture without going through
+     * the command queue. Safe to call from worker threads.
+     */
+    public static void returnCallbackBuffer(byte[] bArr) {
+        backend().addCallbackBuffer(bArr);
     }
 
     public static void setPreviewCallback(ByteBufferCallbackListener byteBufferCallbackListener, boolean z, CameraListener cameraListener) {
-        getInstance().addCallable(new SetPreviewCallbackCallable(byteBufferCallbackListener, z, cameraListener));
+        setPreviewCallback(0, byteBufferCallbackListener, z, cameraListener);
+    }
+
+    /** Frames are only delivered while {@code session} owns the device. */
+    public static void setPreviewCallback(int session, ByteBufferCallbackListener byteBufferCallbackListener, boolean z, CameraListener cameraListener) {
+        int target = states().resolve(session);
+        ByteBufferCallbackListener tracked = states().trackFrames(target, byteBufferCallbackListener);
+        states().submit(target, CameraStateMachine.Command.SET_PREVIEW_CALLBACK, cameraListener,
+                (backend, l) -> backend.setPreviewCallback(tracked, z, l));
     }
 
     public static void setFaceDetectionCallback(Camera.FaceDetectionListener faceDetectionListener, CameraListener cameraListener) {
-        getInstance().addCallable(new SetFaceDetectionCallback(faceDetectionListener, cameraListener));
+        cameraCall(new SetFaceDetectionCallback(faceDetectionListener, cameraListener));
+    }
+
+    /** Starts (or with a null listener stops) hardware face detection for {@code session}. */
+    public static void setFaceDetectionListener(int session, FaceDetectionResultListener listener, CameraListener cameraListener) {
+        states().submit(states().resolve(session), CameraStateMachine.Command.SET_FACE_DETECTION, cameraListener,
+                (backend, l) -> backend.setFaceDetectionListener(listener, l));
     }
 
     public static void setDisplayOrientationCallback(int i, CameraListener cameraListener) {
-        getInstance().addCallable(new SetDisplayOrientationCallback(i, cameraListener));
+        cameraCall(new SetDisplayOrientationCallback(i, cameraListener));
+    }
+
+    /** Runs a legacy camera1 callable against the latest session. */
+    private static void cameraCall(Runnable callable) {
+        states().submit(states().resolve(0), CameraStateMachine.Command.CAMERA_CALL, null, (backend, l) -> callable.run());
     }
 
+    /** Cancels every session: pending opens and commands are skipped and the device is closed. */
     public static void clearQueue() {
-        getInstance().mServiceHandler.removeMessages(DEFAULT_MSG_TYPE);
+        closeCamera(null);
     }
 
     private void addCallable(Runnable cameraCallable) {
         this.mServiceHandler.sendMessage(this.mServiceHandler.obtainMessage(DEFAULT_MSG_TYPE, cameraCallable));
     }
 
-    public static void autoFocus(boolean z, FocusResultListener l, CameraListener c) { getInstance().addCallable(new AutoFocusCallable(z, l, c)); }
-    public static void readParameters(ReadParametersListener r, CameraListener c) { getInstance().addCallable(new ReadParamsCallable(r, c)); }
-    public static void writeParameters(CameraListener c) { getInstance().addCallable(new WriteParamsCallable(c)); }
+    public static void autoFocus(boolean z, FocusResultListener l, CameraListener c) { cameraCall(new AutoFocusCallable(z, l, c)); }
+    public static void readParameters(ReadParametersListener r, CameraListener c) { cameraCall(new ReadParamsCallable(r, c)); }
+    public static void writeParameters(CameraListener c) { cameraCall(new WriteParamsCallable(c)); }
 
     private static final class LazyLoader {
         private static final CameraService INSTANCE = new CameraService();
@@ -0,0 +1,124 @@
+package ax.nd.faceunlock.camera;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+import ax.nd.faceunlock.util.FaceMetrics;
+import ax.nd.faceunlock.util.Util;
+
+/**
+ * Idle window during which the auth camera stays open (preview stopped) and the
+ * engine stays prepared after an authentication ends. The window is read from
+ * {@link #PROP_IDLE_MS} on every entry (0 disables standby); it ends early on
+ * memory trim callbacks or when the thermal status reaches moderate.
+ */
+public class CameraStandby implements ComponentCallbacks2 {
+    private static final String TAG = "CameraStandby";
+    public static final String PROP_IDLE_MS = "persist.sys.oplus.face.standby_ms";
+    private static final long DEFAULT_IDLE_MS = 5000;
+
+    public static final String REASON_IDLE = "idle";
+    public static final String REASON_MEMORY = "memory";
+    public static final String REASON_THERMAL = "thermal";
+
+    public interface ReleaseListener {
+        /** Called on the standby handler once the window ends for any reason but {@link #claim()}. */
+        void onRelease(String reason);
+    }
+
+    private final Handler mHandler;
+    private final ReleaseListener mListener;
+    private final PowerManager mPowerManager;
+    private final Runnable mIdleTimeout = () -> release(REASON_IDLE);
+    private boolean mActive = false;
+    private long mEnteredAt = 0;
+
+    public CameraStandby(Context context, Handler handler, ReleaseListener listener) {
+        mHandler = handler;
+        mListener = listener;
+        mPowerManager = context.getSystemService(PowerManager.class);
+        context.registerComponentCallbacks(this);
+        if (mPowerManager != null) {
+            try {
+                mPowerManager.addThermalStatusListener(handler::post, status -> {
+                    if (status >= PowerManager.THERMAL_STATUS_MODERATE) release(REASON_THERMAL);
+                });
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Thermal status listener unavailable", e);
+            }
+        }
+    }
+
+    public long getIdleWindowMs() {
+        try {
+            return Long.parseLong(Util.getSystemProperty(PROP_IDLE_MS, String.valueOf(DEFAULT_IDLE_MS)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_IDLE_MS;
+        }
+    }
+
+    private boolean isThermalThrottled() {
+        return mPowerManager != null
+                && mPowerManager.getCurrentThermalStatus() >= PowerManager.THERMAL_STATUS_MODERATE;
+    }
+
+    /** Starts (or restarts) the idle window. Returns false if standby is disabled right now. */
+    public boolean enter() {
+        long idleMs = getIdleWindowMs();
+        if (idleMs <= 0 || isThermalThrottled()) return false;
+        synchronized (this) {
+            mActive = true;
+            mEnteredAt = System.nanoTime();
+        }
+        mHandler.removeCallbacks(mIdleTimeout);
+        mHandler.postDelayed(mIdleTimeout, idleMs);
+        FaceMetrics.getInstance().increment("standby.enter");
+        return true;
+    }
+
+    /** Ends the window for a new authentication. Returns true if the warm state is still there. */
+    public boolean claim() {
+        long enteredAt;
+        synchronized (this) {
+            if (!mActive) return false;
+            mActive = false;
+            enteredAt = mEnteredAt;
+        }
+        mHandler.removeCallbacks(mIdleTimeout);
+        FaceMetrics.getInstance().recordLatency("standby.reuse_after_ms", (System.nanoTime() - enteredAt) / 1000000);
+        return true;
+    }
+
+    public synchronized boolean isActive() {
+        return mActive;
+    }
+
+    public void release(String reason) {
+        synchronized (this) {
+            if (!mActive) return;
+            mActive = false;
+        }
+        mHandler.removeCallbacks(mIdleTimeout);
+        Log.d(TAG, "Leaving standby: " + reason);
+        FaceMetrics.getInstance().increment("standby.release." + reason);
+        mListener.onRelease(reason);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) release(REASON_MEMORY);
+    }
+
+    @Override
+    public void onLowMemory() {
+        release(REASON_MEMORY);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
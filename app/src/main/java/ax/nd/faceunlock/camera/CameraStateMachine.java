@@ -0,0 +1,284 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import ax.nd.faceunlock.camera.capture.CaptureBackend;
+import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.util.FaceMetrics;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Session state of the single capture device behind {@link CameraService}.
+ * Every command carries the session id handed out by {@link #newSession()};
+ * commands and callbacks of a session that no longer owns the device are
+ * dropped. Requests are recorded when they are queued so the service thread
+ * can coalesce them: an open that was closed (or superseded by a newer open)
+ * before it ran is skipped, and a close followed by a newer open leaves the
+ * device to be replaced by that open. Commands that are illegal in the
+ * current state are rejected through the listener's onError.
+ */
+public class CameraStateMachine {
+    private static final String TAG = "CameraStateMachine";
+
+    public enum State { CLOSED, OPENING, OPEN, PREVIEWING, CLOSING }
+
+    /** Session-scoped command; the target is the state entered once it completes, if any. */
+    public enum Command {
+        SET_PREVIEW_SIZE(null),
+        START_PREVIEW(State.PREVIEWING),
+        STOP_PREVIEW(State.OPEN),
+        SET_PREVIEW_CALLBACK(null),
+        SET_FPS_RANGE(null),
+        SET_FACE_DETECTION(null),
+        ADD_CALLBACK_BUFFER(null),
+        CAMERA_CALL(null);
+
+        final State mTarget;
+
+        Command(State target) {
+            mTarget = target;
+        }
+    }
+
+    /** Backend call of a session command; {@code listener} must be passed on to the backend. */
+    public interface BackendCall {
+        void run(CaptureBackend backend, CameraListener listener);
+    }
+
+    private final Executor mServiceExecutor;
+    private final Executor mCallbackExecutor;
+    private final Supplier<CaptureBackend> mBackend;
+
+    // Request side, any thread; guarded by this.
+    private int mLatestSession = 0;
+    private int mClosedUpTo = 0;
+
+    // Service thread; volatile for readers on frame and caller threads.
+    private volatile State mState = State.CLOSED;
+    private volatile int mActiveSession = 0;
+    private volatile long mOpenRequestedAt = 0;
+    private volatile int mFirstFrameSession = 0;
+    private final List<CameraListener> mPendingCloseListeners = new ArrayList<>();
+
+    /**
+     * @param serviceExecutor  the single thread all commands and backend calls run on
+     * @param callbackExecutor where close completions of coalesced closes are delivered
+     */
+    public CameraStateMachine(Executor serviceExecutor, Executor callbackExecutor, Supplier<CaptureBackend> backend) {
+        mServiceExecutor = serviceExecutor;
+        mCallbackExecutor = callbackExecutor;
+        mBackend = backend;
+    }
+
+    /** Allocates the id of the next session; older sessions no longer get to open. */
+    public synchronized int newSession() {
+        return ++mLatestSession;
+    }
+
+    /** {@code session}, or the most recently allocated one when it is 0. */
+    public synchronized int resolve(int session) {
+        return session > 0 ? session : mLatestSession;
+    }
+
+    private synchronized boolean isCancelled(int session) {
+        return session < mLatestSession || session <= mClosedUpTo;
+    }
+
+    private synchronized boolean isOpenPendingAfter(int session) {
+        return mLatestSession > session && mLatestSession > mClosedUpTo;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public int getActiveSession() {
+        return mActiveSession;
+    }
+
+    public void open(int session, int cameraId, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        final long requestedAt = System.nanoTime();
+        mServiceExecutor.execute(() -> executeOpen(session, requestedAt, cameraId, errorCallbackListener, cameraListener));
+    }
+
+    private void executeOpen(int session, long requestedAt, int cameraId,
+                             ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        if (isCancelled(session)) {
+            FaceMetrics.getInstance().increment("camera.cmd.coalesced");
+            Log.d(TAG, "Skipping open of session " + session);
+            return;
+        }
+        boolean wasClosing = mState == State.CLOSING;
+        mState = State.OPENING;
+        mActiveSession = session;
+        mOpenRequestedAt = requestedAt;
+        CameraListener listener = new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                if (mActiveSession != session || mState != State.OPENING) {
+                    FaceMetrics.getInstance().increment("camera.cmd.stale");
+                    return;
+                }
+                mState = State.OPEN;
+                if (cameraListener != null) cameraListener.onComplete(value);
+            }
+            @Override
+            public void onError(Exception e) {
+                if (mActiveSession == session) {
+                    mState = State.CLOSED;
+                    mActiveSession = 0;
+                }
+                if (cameraListener != null) cameraListener.onError(e);
+            }
+        };
+        ErrorCallbackListener errors = errorCallbackListener == null ? null : (i, value) -> {
+            if (!isCancelled(session)) errorCallbackListener.onEventCallback(i, value);
+        };
+        mBackend.get().open(cameraId, errors, listener);
+        Reference.reachabilityFence(listener);
+        // Opening released whatever device a coalesced close left behind.
+        if (!wasClosing) firePendingCloseListeners();
+    }
+
+    /** Closes {@code session} (the latest one when 0) and every older session. */
+    public void close(int session, CameraListener cameraListener) {
+        final int target;
+        synchronized (this) {
+            target = session > 0 ? session : mLatestSession;
+            if (target > mClosedUpTo) mClosedUpTo = target;
+        }
+        mServiceExecutor.execute(() -> executeClose(target, cameraListener));
+    }
+
+    private void executeClose(int session, CameraListener cameraListener) {
+        if (mActiveSession > session) {
+            // The device already belongs to a newer session.
+            FaceMetrics.getInstance().increment("camera.cmd.stale");
+            complete(cameraListener);
+            return;
+        }
+        if (mState == State.CLOSING) {
+            if (cameraListener != null) mPendingCloseListeners.add(cameraListener);
+            return;
+        }
+        if (mState == State.CLOSED) {
+            // Nothing is open, but a backend may still hold a half-open device.
+            mBackend.get().close(null);
+            complete(cameraListener);
+            return;
+        }
+        if (isOpenPendingAfter(session)) {
+            FaceMetrics.getInstance().increment("camera.cmd.coalesced");
+            if (cameraListener != null) mPendingCloseListeners.add(cameraListener);
+            return;
+        }
+        final int closing = mActiveSession;
+        mState = State.CLOSING;
+        CameraListener listener = new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                mServiceExecutor.execute(() -> {
+                    if (mState == State.CLOSING && mActiveSession == closing) {
+                        mState = State.CLOSED;
+                        mActiveSession = 0;
+                    }
+                    firePendingCloseListeners();
+                });
+                if (cameraListener != null) cameraListener.onComplete(value);
+            }
+            @Override
+            public void onError(Exception e) {
+                onComplete(null);
+            }
+        };
+        try {
+            mBackend.get().close(listener);
+        } finally {
+            Reference.reachabilityFence(listener);
+        }
+    }
+
+    /**
+     * Runs a session command on the service thread. Commands of a session that
+     * does not own the device are dropped; commands that need a running device
+     * are rejected unless the session is OPEN or PREVIEWING.
+     */
+    public void submit(int session, Command command, CameraListener cameraListener, BackendCall call) {
+        mServiceExecutor.execute(() -> executeCommand(session, command, cameraListener, call));
+    }
+
+    private void executeCommand(int session, Command command, CameraListener cameraListener, BackendCall call) {
+        if (session != mActiveSession) {
+            FaceMetrics.getInstance().increment("camera.cmd.stale");
+            Log.d(TAG, "Dropping " + command + " of stale session " + session);
+            return;
+        }
+        State state = mState;
+        if (state != State.OPEN && state != State.PREVIEWING) {
+            FaceMetrics.getInstance().increment("camera.cmd.rejected");
+            Log.w(TAG, "Rejecting " + command + " in state " + state);
+            if (cameraListener != null) cameraListener.onError(new IllegalStateException(command + " in " + state));
+            return;
+        }
+        final State target = command.mTarget;
+        CameraListener listener = target == null ? cameraListener : new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                if (mActiveSession == session && (mState == State.OPEN || mState == State.PREVIEWING)) {
+                    mState = target;
+                }
+                if (cameraListener != null) cameraListener.onComplete(value);
+            }
+            @Override
+            public void onError(Exception e) {
+                if (cameraListener != null) cameraListener.onError(e);
+            }
+        };
+        call.run(mBackend.get(), listener);
+        Reference.reachabilityFence(listener);
+    }
+
+    /**
+     * Wraps a preview callback so frames reaching a session that no longer owns
+     * the device are dropped, and records open-to-first-frame latency.
+     */
+    public ByteBufferCallbackListener trackFrames(int session, ByteBufferCallbackListener callback) {
+        if (callback == null) return null;
+        return (i, value) -> {
+            if (mActiveSession != session) return;
+            if (mFirstFrameSession != session) {
+                mFirstFrameSession = session;
+                FaceMetrics.getInstance().recordLatency("camera.open_to_first_frame_ms",
+                        (System.nanoTime() - mOpenRequestedAt) / 1000000);
+            }
+            callback.onEventCallback(i, value);
+        };
+    }
+
+    /** Forgets the device after the backend was closed behind the state machine's back. */
+    public void reset() {
+        mServiceExecutor.execute(() -> {
+            mState = State.CLOSED;
+            mActiveSession = 0;
+            firePendingCloseListeners();
+        });
+    }
+
+    private void firePendingCloseListeners() {
+        if (mPendingCloseListeners.isEmpty()) return;
+        List<CameraListener> listeners = new ArrayList<>(mPendingCloseListeners);
+        mPendingCloseListeners.clear();
+        for (CameraListener listener : listeners) complete(listener);
+    }
+
+    private void complete(CameraListener listener) {
+        if (listener != null) mCallbackExecutor.execute(() -> listener.onComplete(null));
+    }
+}
@@ -0,0 +1,88 @@
+package ax.nd.faceunlock.camera;
+
+/**
+ * Picks how many consecutive preview frames go into one compare call. Every
+ * window size is scored by wall time per frame, including the time spent
+ * waiting for the frames to arrive, so a larger window only wins if one
+ * batched call really evaluates frames faster than that many single calls.
+ * Starting from per-frame compare, the next larger window is probed as long
+ * as the current one beat the smaller one; afterwards the cheapest window is
+ * used, and batching has to beat per-frame compare by {@link #MARGIN}.
+ */
+public class CompareBatchPolicy {
+    static final int MIN_SAMPLES = 4;
+    static final double MARGIN = 0.9;
+    private static final double EWMA_WEIGHT = 0.25;
+
+    private final int mMaxWindow;
+    private final double[] mNanosPerFrame;
+    private final int[] mSamples;
+    private int mWindow = 1;
+    private boolean mDisabled = false;
+
+    /** @param maxWindow largest batch; 1 or less keeps per-frame compare */
+    public CompareBatchPolicy(int maxWindow) {
+        mMaxWindow = Math.max(1, maxWindow);
+        mNanosPerFrame = new double[mMaxWindow + 1];
+        mSamples = new int[mMaxWindow + 1];
+    }
+
+    public synchronized int getMaxWindow() {
+        return mDisabled ? 1 : mMaxWindow;
+    }
+
+    public synchronized int getWindow() {
+        return mDisabled ? 1 : mWindow;
+    }
+
+    /** Falls back to per-frame compare for good, e.g. when the engine rejects batches. */
+    public synchronized void disable() {
+        mDisabled = true;
+    }
+
+    /** Reports one compare call over {@code frames} frames that took {@code nanos} including the wait for them. */
+    public synchronized void onCycle(int frames, long nanos) {
+        if (frames < 1 || frames > mMaxWindow || nanos <= 0) return;
+        double perFrame = (double) nanos / frames;
+        if (mSamples[frames] == 0) {
+            mNanosPerFrame[frames] = perFrame;
+        } else {
+            mNanosPerFrame[frames] += EWMA_WEIGHT * (perFrame - mNanosPerFrame[frames]);
+        }
+        mSamples[frames]++;
+        if (frames == mWindow) choose();
+    }
+
+    private void choose() {
+        if (mSamples[mWindow] < MIN_SAMPLES) return;
+        int next = mWindow + 1;
+        if (next <= mMaxWindow && mSamples[next] < MIN_SAMPLES
+                && (mWindow == 1 || cheaper(mWindow, mWindow - 1))) {
+            mWindow = next;
+            return;
+        }
+        int best = 1;
+        for (int window = 2; window <= mMaxWindow; window++) {
+            if (mSamples[window] >= MIN_SAMPLES && cheaper(window, 1)
+                    && (best == 1 || mNanosPerFrame[window] < mNanosPerFrame[best])) {
+                best = window;
+            }
+        }
+        mWindow = best;
+    }
+
+    private boolean cheaper(int window, int than) {
+        return mNanosPerFrame[window] < MARGIN * mNanosPerFrame[than];
+    }
+
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder("CompareBatchPolicy{window=").append(getWindow());
+        if (mDisabled) sb.append(", disabled");
+        for (int window = 1; window <= mMaxWindow; window++) {
+            if (mSamples[window] == 0) continue;
+            sb.append(", ").append(window).append('=').append((long) mNanosPerFrame[window] / 1000)
+                    .append("us/frame n=").append(mSamples[window]);
+        }
+        return sb.append('}').toString();
+    }
+}
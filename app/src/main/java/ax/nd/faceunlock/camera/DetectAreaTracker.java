@@ -0,0 +1,144 @@
+package ax.nd.faceunlock.camera;
+
+/**
+ * Keeps the engine's detect area around the face the camera's detector
+ * reports, so the native detector scans a fraction of the frame. The face
+ * is expanded by {@link #MARGIN} of its size on every side. The area is only
+ * moved when the face plus half that margin leaves it or it has become much
+ * larger than needed, which keeps setDetectArea calls rare. After {@link #MAX_MISSES} reports
+ * without a face, or no report for {@link #STALE_MS}, the full frame is used
+ * again. Areas are {left, top, right, bottom} in preview frame pixels.
+ */
+public class DetectAreaTracker {
+    static final float MARGIN = 0.5f;
+    static final float MIN_FRACTION = 0.25f;
+    static final int MAX_MISSES = 3;
+    static final long STALE_MS = 300;
+    // A kept area may be up to this many times the area the face needs.
+    private static final float MAX_SLACK = 2.5f;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mFull;
+    private float[] mFace;
+    private long mLastFaceNanos = 0;
+    private int mMisses = 0;
+    private int[] mArea;
+
+    private long mFrames = 0;
+    private long mReducedFrames = 0;
+    private long mUpdates = 0;
+    private double mAreaFractionSum = 0;
+
+    public DetectAreaTracker(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mFull = new int[] {0, 0, width, height};
+    }
+
+    /** Face bounds as fractions of the frame. */
+    public synchronized void onFace(float left, float top, float right, float bottom, long nowNanos) {
+        mFace = new float[] {left, top, right, bottom};
+        mLastFaceNanos = nowNanos;
+        mMisses = 0;
+    }
+
+    public synchronized void onNoFace() {
+        mMisses++;
+    }
+
+    /**
+     * Called before every detection. Returns the area to hand to the engine
+     * if it changed since the last call, otherwise null.
+     */
+    public synchronized int[] update(long nowNanos) {
+        int[] target = mFull;
+        int[] needed = mFull;
+        if (mFace != null && mMisses < MAX_MISSES && nowNanos - mLastFaceNanos <= STALE_MS * 1000000L) {
+            target = expand(mFace, MARGIN);
+            needed = expand(mFace, MARGIN / 2);
+        }
+        int[] next = mArea;
+        if (mArea == null || target == mFull || mArea == mFull
+                || !contains(mArea, needed) || area(mArea) > MAX_SLACK * area(needed)) {
+            next = target;
+        }
+        mFrames++;
+        if (next != mFull) mReducedFrames++;
+        mAreaFractionSum += (double) area(next) / area(mFull);
+        if (next == mArea) return null;
+        mArea = next;
+        mUpdates++;
+        return next;
+    }
+
+    private int[] expand(float[] face, float margin) {
+        float w = face[2] - face[0];
+        float h = face[3] - face[1];
+        float mw = Math.max(w * (1 + 2 * margin), MIN_FRACTION);
+        float mh = Math.max(h * (1 + 2 * margin), MIN_FRACTION);
+        float cx = (face[0] + face[2]) / 2;
+        float cy = (face[1] + face[3]) / 2;
+        int left = clamp((int) ((cx - mw / 2) * mWidth), mWidth);
+        int top = clamp((int) ((cy - mh / 2) * mHeight), mHeight);
+        int right = clamp((int) Math.ceil((cx + mw / 2) * mWidth), mWidth);
+        int bottom = clamp((int) Math.ceil((cy + mh / 2) * mHeight), mHeight);
+        if (right - left >= mWidth && bottom - top >= mHeight) return mFull;
+        return new int[] {left, top, right, bottom};
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    private static boolean contains(int[] outer, int[] inner) {
+        return outer[0] <= inner[0] && outer[1] <= inner[1] && outer[2] >= inner[2] && outer[3] >= inner[3];
+    }
+
+    private static long area(int[] rect) {
+        return (long) (rect[2] - rect[0]) * (rect[3] - rect[1]);
+    }
+
+    /**
+     * Maps a frame area to the engine's detect-area space: the frame rotated by
+     * the sensor {@code orientation}, as in the full-frame (0, 0, height, width).
+     */
+    public static int[] toEngineArea(int[] area, int width, int height, int orientation) {
+        switch (orientation) {
+            case 90:
+                return new int[] {height - area[3], area[0], height - area[1], area[2]};
+            case 180:
+                return new int[] {width - area[2], height - area[3], width - area[0], height - area[1]};
+            case 270:
+                return new int[] {area[1], width - area[2], area[3], width - area[0]};
+            default:
+                return area.clone();
+        }
+    }
+
+    public synchronized boolean isReduced() {
+        return mArea != null && mArea != mFull;
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrames;
+    }
+
+    public synchronized long getReducedFrameCount() {
+        return mReducedFrames;
+    }
+
+    public synchronized long getUpdateCount() {
+        return mUpdates;
+    }
+
+    /** Average scanned area as a fraction of the full frame. */
+    public synchronized double getAverageAreaFraction() {
+        return mFrames == 0 ? 1 : mAreaFractionSum / mFrames;
+    }
+
+    public synchronized String dump() {
+        return "DetectAreaTracker{frames=" + mFrames + ", reduced=" + mReducedFrames
+                + ", updates=" + mUpdates + ", avgArea=" + Math.round(getAverageAreaFraction() * 100) + "%}";
+    }
+}
@@ -0,0 +1,76 @@
+package ax.nd.faceunlock.camera;
+
+/**
+ * Lets frames through to the engine only while the camera's own face
+ * detector reports a face scoring at least {@link #MIN_SCORE}. The gate stays
+ * open until a report without such a face (some HALs only report changes),
+ * and for {@link #HOLD_MS} after it, covering a detector that briefly loses
+ * the face. Until the first report the gate is closed; if no
+ * report arrives within {@link #GRACE_MS} of the session start, detection is
+ * assumed broken and the gate stays open.
+ */
+public class FaceDetectionGate {
+    static final int MIN_SCORE = 50;
+    static final long HOLD_MS = 300;
+    static final long GRACE_MS = 500;
+
+    private final long mStartNanos;
+    private long mLastFaceNanos = 0;
+    private boolean mReported = false;
+    private boolean mFacePresent = false;
+    private boolean mOpen = false;
+    private long mPassed = 0;
+    private long mBlocked = 0;
+
+    public FaceDetectionGate(long startNanos) {
+        mStartNanos = startNanos;
+    }
+
+    public synchronized void onFaceDetection(int faces, int bestScore, long nowNanos) {
+        mReported = true;
+        boolean present = faces > 0 && bestScore >= MIN_SCORE;
+        if (present || mFacePresent) mLastFaceNanos = nowNanos;
+        mFacePresent = present;
+    }
+
+    /** Opens the gate for good, e.g. when the camera has no face detection. */
+    public synchronized void disable() {
+        mOpen = true;
+    }
+
+    /** Whether a frame captured at {@code nowNanos} should reach the engine. */
+    public synchronized boolean allow(long nowNanos) {
+        boolean allow;
+        if (mOpen) {
+            allow = true;
+        } else if (!mReported) {
+            mOpen = nowNanos - mStartNanos > GRACE_MS * 1000000L;
+            allow = mOpen;
+        } else {
+            allow = mFacePresent || (mLastFaceNanos != 0 && nowNanos - mLastFaceNanos <= HOLD_MS * 1000000L);
+        }
+        if (allow) {
+            mPassed++;
+        } else {
+            mBlocked++;
+        }
+        return allow;
+    }
+
+    public synchronized boolean isDisabled() {
+        return mOpen;
+    }
+
+    /** Frames kept from the engine, i.e. native compare calls avoided. */
+    public synchronized long getBlockedCount() {
+        return mBlocked;
+    }
+
+    public synchronized long getPassedCount() {
+        return mPassed;
+    }
+
+    public synchronized String dump() {
+        return "FaceDetectionGate{passed=" + mPassed + ", blocked=" + mBlocked + (mOpen ? ", open" : "") + "}";
+    }
+}
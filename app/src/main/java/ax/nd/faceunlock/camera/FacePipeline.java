@@ -0,0 +1,154 @@
+package ax.nd.faceunlock.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import ax.nd.faceunlock.util.FaceMetrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker threads shared by every auth and enroll session: a looper thread for
+ * each pipeline and a compare pool that grows to the largest worker count any
+ * session asked for. The bridge's control work and its binder callbacks get
+ * looper threads of their own, off the main looper that system_server shares
+ * with many services. Threads start on first use with their priority set once
+ * and are never torn down; a session stops its queued work through its
+ * {@link Token} instead.
+ */
+public class FacePipeline {
+    private static final String TAG = "FacePipeline";
+    // Frame handling is on the unlock path, just below the UI threads.
+    static final int PRIORITY = Process.THREAD_PRIORITY_FOREGROUND;
+    // Start and stop requests and camera state changes gate every frame that follows.
+    static final int CONTROL_PRIORITY = Process.THREAD_PRIORITY_DISPLAY;
+    private static FacePipeline sInstance;
+
+    /** Cancellation of one session's work on the shared threads. */
+    public static class Token {
+        private volatile boolean mCancelled = false;
+
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /** {@code task}, skipped once this token is cancelled. */
+        public Runnable wrap(Runnable task) {
+            return () -> {
+                if (!mCancelled) task.run();
+            };
+        }
+    }
+
+    private Handler mAuthHandler;
+    private Handler mEnrollHandler;
+    private Handler mControlHandler;
+    private Handler mCallbackHandler;
+    private Handler mBackgroundHandler;
+    private ThreadPoolExecutor mCompareExecutor;
+    private final AtomicInteger mCompareThreads = new AtomicInteger();
+
+    FacePipeline() {
+    }
+
+    public static synchronized FacePipeline getInstance() {
+        if (sInstance == null) sInstance = new FacePipeline();
+        return sInstance;
+    }
+
+    public synchronized Handler getAuthHandler() {
+        if (mAuthHandler == null) mAuthHandler = startLooper("face_auth_thread");
+        return mAuthHandler;
+    }
+
+    public synchronized Handler getEnrollHandler() {
+        if (mEnrollHandler == null) mEnrollHandler = startLooper("face_enroll_thread");
+        return mEnrollHandler;
+    }
+
+    /** Requests from the face service and camera state changes, in order. */
+    public synchronized Handler getControlHandler() {
+        if (mControlHandler == null) mControlHandler = startLooper("face_control", CONTROL_PRIORITY);
+        return mControlHandler;
+    }
+
+    /** Binder callbacks to the face service, in the order they were raised. */
+    public synchronized Handler getCallbackHandler() {
+        if (mCallbackHandler == null) mCallbackHandler = startLooper("face_callback", PRIORITY);
+        return mCallbackHandler;
+    }
+
+    /** Deferred engine maintenance that must never compete with a session, e.g. accelerator tuning. */
+    public synchronized Handler getBackgroundHandler() {
+        if (mBackgroundHandler == null) {
+            mBackgroundHandler = startLooper("face_background", Process.THREAD_PRIORITY_BACKGROUND);
+        }
+        return mBackgroundHandler;
+    }
+
+    private static Handler startLooper(String name) {
+        return startLooper(name, PRIORITY);
+    }
+
+    private static Handler startLooper(String name, int priority) {
+        HandlerThread thread = new HandlerThread(name, priority);
+        thread.start();
+        FaceMetrics.getInstance().increment("pipeline.threads.started");
+        return new Handler(thread.getLooper());
+    }
+
+    /**
+     * Posts to {@code handler}, recording how long each task waited in its
+     * queue as {@code metric}.
+     */
+    public static Executor timed(Handler handler, String metric) {
+        return task -> {
+            final long queuedAt = SystemClock.uptimeMillis();
+            handler.post(() -> {
+                FaceMetrics.getInstance().recordLatency(metric, SystemClock.uptimeMillis() - queuedAt);
+                task.run();
+            });
+        };
+    }
+
+    /** The compare pool, grown to at least {@code workers} threads. */
+    public synchronized ExecutorService getCompareExecutor(int workers) {
+        if (mCompareExecutor == null) {
+            mCompareExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(() -> {
+                            Process.setThreadPriority(PRIORITY);
+                            r.run();
+                        }, "face_compare_" + mCompareThreads.getAndIncrement());
+                        thread.setDaemon(true);
+                        FaceMetrics.getInstance().increment("pipeline.threads.started");
+                        return thread;
+                    });
+        } else if (workers > mCompareExecutor.getMaximumPoolSize()) {
+            // Maximum first, a core size above it is rejected.
+            mCompareExecutor.setMaximumPoolSize(workers);
+            mCompareExecutor.setCorePoolSize(workers);
+            Log.d(TAG, "Compare pool grown to " + workers);
+        }
+        return mCompareExecutor;
+    }
+
+    public synchronized String dump() {
+        return "FacePipeline{auth=" + (mAuthHandler != null) + ", enroll=" + (mEnrollHandler != null)
+                + ", control=" + (mControlHandler != null) + ", callback=" + (mCallbackHandler != null)
+                + ", background=" + (mBackgroundHandler != null)
+                + ", compareThreads=" + mCompareThreads.get() + "}";
+    }
+}
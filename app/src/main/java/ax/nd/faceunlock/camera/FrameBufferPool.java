@@ -0,0 +1,226 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide pool of preview frame buffers, keyed by byte size.
+ * Buffers outlive camera sessions so that repeated keyguard unlocks do not
+ * reallocate full-resolution NV21 arrays every time.
+ */
+public class FrameBufferPool {
+    private static final String TAG = "FrameBufferPool";
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 8L * 1024 * 1024;
+    private static FrameBufferPool sInstance;
+
+    private final Map<Integer, ArrayDeque<byte[]>> mFree = new HashMap<>();
+    private final Map<byte[], Session> mOutstanding = new IdentityHashMap<>();
+    private long mMaxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
+    private long mBytesRetained = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mDiscarded = 0;
+
+    public static synchronized FrameBufferPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameBufferPool();
+        }
+        return sInstance;
+    }
+
+    public synchronized void setMaxRetainedBytes(long maxRetainedBytes) {
+        mMaxRetainedBytes = maxRetainedBytes;
+        trimLocked();
+    }
+
+    /**
+     * Opens a lease on the pool. Every buffer acquired through the session is
+     * tracked until it is recycled or the session is closed.
+     */
+    public Session openSession(String owner) {
+        return new Session(owner);
+    }
+
+    private synchronized byte[] acquire(int size, Session session) {
+        byte[] buffer = null;
+        ArrayDeque<byte[]> free = mFree.get(size);
+        if (free != null) buffer = free.pollFirst();
+        if (buffer != null) {
+            mHits++;
+            mBytesRetained -= size;
+        } else {
+            mMisses++;
+            buffer = new byte[size];
+        }
+        mOutstanding.put(buffer, session);
+        return buffer;
+    }
+
+    private synchronized void release(byte[] buffer) {
+        if (mOutstanding.remove(buffer) == null) {
+            Log.w(TAG, "Ignoring buffer that was not handed out by the pool (" + buffer.length + " bytes)");
+            return;
+        }
+        if (mBytesRetained + buffer.length > mMaxRetainedBytes) {
+            mDiscarded++;
+            return;
+        }
+        ArrayDeque<byte[]> free = mFree.get(buffer.length);
+        if (free == null) {
+            free = new ArrayDeque<>();
+            mFree.put(buffer.length, free);
+        }
+        free.addFirst(buffer);
+        mBytesRetained += buffer.length;
+    }
+
+    private void trimLocked() {
+        Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> it = mFree.entrySet().iterator();
+        while (mBytesRetained > mMaxRetainedBytes && it.hasNext()) {
+            Map.Entry<Integer, ArrayDeque<byte[]>> entry = it.next();
+            ArrayDeque<byte[]> free = entry.getValue();
+            while (mBytesRetained > mMaxRetainedBytes && !free.isEmpty()) {
+                free.pollLast();
+                mBytesRetained -= entry.getKey();
+                mDiscarded++;
+            }
+            if (free.isEmpty()) it.remove();
+        }
+    }
+
+    /** Drops every idle buffer, e.g. under memory pressure. Leased buffers are untouched. */
+    public synchronized void trim() {
+        mFree.clear();
+        mBytesRetained = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getBytesRetained() {
+        return mBytesRetained;
+    }
+
+    /** Buffers currently leased by open sessions (in the camera queue or being processed). */
+    public synchronized int getInFlightCount() {
+        int count = 0;
+        for (Session session : mOutstanding.values()) {
+            if (!session.mClosed) count++;
+        }
+        return count;
+    }
+
+    /** Buffers still leased by sessions that have already been closed. */
+    public synchronized int getLeakedCount() {
+        int count = 0;
+        for (Session session : mOutstanding.values()) {
+            if (session.mClosed) count++;
+        }
+        return count;
+    }
+
+    public synchronized String dump() {
+        return "FrameBufferPool{hits=" + mHits + ", misses=" + mMisses + ", bytesRetained=" + mBytesRetained
+                + ", inFlight=" + getInFlightCount() + ", leaked=" + getLeakedCount() + ", discarded=" + mDiscarded + "}";
+    }
+
+    /**
+     * A single camera session's view of the pool. Buffers handed to the camera
+     * are "queued"; buffers delivered to a worker are "checked out". Closing the
+     * session (after the camera has been released) returns every queued buffer,
+     * while checked-out buffers return once the worker is done with them.
+     */
+    public class Session {
+        private final String mOwner;
+        private final List<byte[]> mQueued = new ArrayList<>();
+        private final List<byte[]> mCheckedOut = new ArrayList<>();
+        private volatile boolean mClosed = false;
+
+        private Session(String owner) {
+            mOwner = owner;
+        }
+
+        public byte[] acquire(int size) {
+            byte[] buffer = FrameBufferPool.this.acquire(size, this);
+            synchronized (this) {
+                mQueued.add(buffer);
+            }
+            return buffer;
+        }
+
+        /** Marks a buffer as handed out of the camera to a worker. */
+        public synchronized void checkOut(byte[] buffer) {
+            if (removeIdentity(mQueued, buffer)) mCheckedOut.add(buffer);
+        }
+
+        /**
+         * Called by the worker when it is finished with a buffer. Returns true if
+         * the buffer may be given back to the camera, false if the session is
+         * closed and the buffer went back to the pool instead.
+         */
+        public boolean checkIn(byte[] buffer) {
+            synchronized (this) {
+                if (!removeIdentity(mCheckedOut, buffer)) return false;
+                if (!mClosed) {
+                    mQueued.add(buffer);
+                    return true;
+                }
+            }
+            FrameBufferPool.this.release(buffer);
+            return false;
+        }
+
+        /** Returns a buffer the caller will not hand to the camera again. */
+        public void recycle(byte[] buffer) {
+            synchronized (this) {
+                if (!removeIdentity(mQueued, buffer) && !removeIdentity(mCheckedOut, buffer)) return;
+            }
+            FrameBufferPool.this.release(buffer);
+        }
+
+        /** Must only be called once the camera no longer references the queued buffers. */
+        public void close() {
+            List<byte[]> queued;
+            int checkedOut;
+            synchronized (this) {
+                if (mClosed) return;
+                mClosed = true;
+                queued = new ArrayList<>(mQueued);
+                mQueued.clear();
+                checkedOut = mCheckedOut.size();
+            }
+            for (byte[] buffer : queued) {
+                FrameBufferPool.this.release(buffer);
+            }
+            if (checkedOut > 0) {
+                Log.d(TAG, mOwner + ": closed with " + checkedOut + " buffer(s) still checked out");
+            }
+        }
+
+        public boolean isClosed() {
+            return mClosed;
+        }
+
+        private boolean removeIdentity(List<byte[]> list, byte[] buffer) {
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == buffer) {
+                    list.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
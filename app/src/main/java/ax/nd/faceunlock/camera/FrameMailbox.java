@@ -0,0 +1,155 @@
+package ax.nd.faceunlock.camera;
+
+/**
+ * Bounded single-producer/single-consumer hand-off between the camera callback
+ * thread and a worker. When full the oldest frame is dropped, and the worker
+ * always takes the freshest frame, discarding anything older or past the age
+ * cutoff. Dropped frames go to the {@link DropListener} so they can be
+ * returned to the camera immediately.
+ */
+public class FrameMailbox {
+    public interface DropListener {
+        void onFrameDropped(byte[] frame);
+    }
+
+    private final byte[][] mFrames;
+    private final long[] mTimestamps;
+    private final long mMaxAgeNanos;
+    private final DropListener mDropListener;
+    private int mHead = 0;
+    private int mCount = 0;
+
+    private long mOffered = 0;
+    private long mDroppedOverflow = 0;
+    private long mDroppedSuperseded = 0;
+    private long mDroppedStale = 0;
+    private long mProcessed = 0;
+    private long mLastAgeNanos = 0;
+    private long mMaxAgeSeenNanos = 0;
+    private long mTotalAgeNanos = 0;
+
+    public FrameMailbox(int capacity, long maxAgeMs, DropListener dropListener) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+        mFrames = new byte[capacity][];
+        mTimestamps = new long[capacity];
+        mMaxAgeNanos = maxAgeMs * 1_000_000L;
+        mDropListener = dropListener;
+    }
+
+    /**
+     * Called by the producer. Returns true when the mailbox was empty, i.e. the
+     * consumer has to be woken up to drain it.
+     */
+    public boolean offer(byte[] frame) {
+        byte[] dropped = null;
+        boolean wasEmpty;
+        synchronized (this) {
+            mOffered++;
+            wasEmpty = mCount == 0;
+            if (mCount == mFrames.length) {
+                dropped = mFrames[mHead];
+                mFrames[mHead] = null;
+                mHead = (mHead + 1) % mFrames.length;
+                mCount--;
+                mDroppedOverflow++;
+            }
+            int tail = (mHead + mCount) % mFrames.length;
+            mFrames[tail] = frame;
+            mTimestamps[tail] = System.nanoTime();
+            mCount++;
+        }
+        if (dropped != null) mDropListener.onFrameDropped(dropped);
+        return wasEmpty;
+    }
+
+    /**
+     * Called by the consumer. Returns the newest frame that is still within the
+     * age cutoff, or null. Every other queued frame is dropped.
+     */
+    public byte[] take() {
+        while (true) {
+            byte[] frame;
+            byte[] superseded = null;
+            long age;
+            synchronized (this) {
+                if (mCount == 0) return null;
+                if (mCount > 1) {
+                    superseded = mFrames[mHead];
+                    mFrames[mHead] = null;
+                    mHead = (mHead + 1) % mFrames.length;
+                    mCount--;
+                    mDroppedSuperseded++;
+                    frame = null;
+                    age = 0;
+                } else {
+                    frame = mFrames[mHead];
+                    age = System.nanoTime() - mTimestamps[mHead];
+                    mFrames[mHead] = null;
+                    mHead = (mHead + 1) % mFrames.length;
+                    mCount--;
+                    if (mMaxAgeNanos > 0 && age > mMaxAgeNanos) {
+                        mDroppedStale++;
+                        superseded = frame;
+                        frame = null;
+                    } else {
+                        mProcessed++;
+                        mLastAgeNanos = age;
+                        mTotalAgeNanos += age;
+                        if (age > mMaxAgeSeenNanos) mMaxAgeSeenNanos = age;
+                    }
+                }
+            }
+            if (superseded != null) {
+                mDropListener.onFrameDropped(superseded);
+                continue;
+            }
+            return frame;
+        }
+    }
+
+    /** Drops every queued frame, e.g. when the session stops. */
+    public void clear() {
+        while (true) {
+            byte[] frame;
+            synchronized (this) {
+                if (mCount == 0) return;
+                frame = mFrames[mHead];
+                mFrames[mHead] = null;
+                mHead = (mHead + 1) % mFrames.length;
+                mCount--;
+            }
+            mDropListener.onFrameDropped(frame);
+        }
+    }
+
+    public synchronized long getOfferedCount() {
+        return mOffered;
+    }
+
+    public synchronized long getProcessedCount() {
+        return mProcessed;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedOverflow + mDroppedSuperseded + mDroppedStale;
+    }
+
+    public synchronized long getLastFrameAgeMs() {
+        return mLastAgeNanos / 1_000_000L;
+    }
+
+    public synchronized long getMaxFrameAgeMs() {
+        return mMaxAgeSeenNanos / 1_000_000L;
+    }
+
+    public synchronized long getAverageFrameAgeMs() {
+        return mProcessed == 0 ? 0 : (mTotalAgeNanos / mProcessed) / 1_000_000L;
+    }
+
+    public synchronized String dump() {
+        return "FrameMailbox{offered=" + mOffered + ", processed=" + mProcessed
+                + ", droppedOverflow=" + mDroppedOverflow + ", droppedSuperseded=" + mDroppedSuperseded
+                + ", droppedStale=" + mDroppedStale + ", ageAvgMs=" + getAverageFrameAgeMs()
+                + ", ageMaxMs=" + getMaxFrameAgeMs() + "}";
+    }
+}
@@ -0,0 +1,212 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.Arrays;
+
+/**
+ * Rejects preview frames that are clearly unusable before they cost a native
+ * compare. Only every {@link #STEP}th luma sample of every {@link #STEP}th row
+ * of the NV21 Y plane is read. Three stages run in order, each only if the
+ * previous one passed: a luma histogram for too dark or blown-out frames, the
+ * variance of a 4-neighbour Laplacian at the sampled points for blur, and the
+ * mean absolute luma change against the previous frame for motion, with the
+ * change in mean luma taken out so auto-exposure settling is not motion. Defaults
+ * are conservative; borderline frames are left to the engine.
+ */
+public class FrameQualityFilter {
+    public static final int PASS = 0;
+    public static final int DARK = 1;
+    public static final int BRIGHT = 2;
+    public static final int BLUR = 3;
+    public static final int MOTION = 4;
+    static final String[] REASONS = {"pass", "dark", "bright", "blur", "motion"};
+
+    static final int STEP = 4;
+    private static final int BRIGHT_LEVEL = 250;
+    private static final int STAGES = 3;
+
+    /** Rejection thresholds; a threshold of 0 turns its check off. */
+    public static class Thresholds {
+        // Minimum mean luma, 0..255.
+        public int mMinLuma = 25;
+        // Maximum percentage of samples at or above BRIGHT_LEVEL.
+        public int mMaxBrightPercent = 60;
+        // Minimum Laplacian variance.
+        public int mMinSharpness = 10;
+        // Maximum mean absolute luma change between consecutive frames.
+        public int mMaxMotion = 45;
+
+        /** Parses "minLuma,maxBrightPercent,minSharpness,maxMotion"; missing or bad fields keep their default. */
+        public static Thresholds parse(String spec) {
+            Thresholds t = new Thresholds();
+            if (spec == null || spec.isEmpty()) return t;
+            String[] parts = spec.split(",");
+            int[] values = {t.mMinLuma, t.mMaxBrightPercent, t.mMinSharpness, t.mMaxMotion};
+            for (int i = 0; i < parts.length && i < values.length; i++) {
+                try {
+                    values[i] = Math.max(0, Integer.parseInt(parts[i].trim()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            t.mMinLuma = values[0];
+            t.mMaxBrightPercent = values[1];
+            t.mMinSharpness = values[2];
+            t.mMaxMotion = values[3];
+            return t;
+        }
+    }
+
+    private final Thresholds mThresholds;
+    private final int[] mHistogram = new int[256];
+    private byte[] mPrevious;
+    private int mPreviousCount = 0;
+    private double mPreviousMeanLuma;
+    private byte[] mSamples;
+
+    private final long[] mStageNanos = new long[STAGES];
+    private final long[] mStageRuns = new long[STAGES];
+    private final long[] mRejected = new long[REASONS.length];
+    private double mLastMeanLuma;
+    private double mLastSharpness;
+    private double mLastMotion;
+
+    public FrameQualityFilter(Thresholds thresholds) {
+        mThresholds = thresholds;
+    }
+
+    /** Returns {@link #PASS} or the reason the frame should not reach the engine. */
+    public synchronized int check(byte[] nv21, int width, int height) {
+        long start = System.nanoTime();
+        int count = sampleLuma(nv21, width, height);
+        int result = checkLuma(count);
+        long end = System.nanoTime();
+        record(0, end - start);
+        if (result == PASS && mThresholds.mMinSharpness > 0) {
+            start = end;
+            mLastSharpness = sharpness(nv21, width, height);
+            if (mLastSharpness < mThresholds.mMinSharpness) result = BLUR;
+            end = System.nanoTime();
+            record(1, end - start);
+        }
+        if (result == PASS && mThresholds.mMaxMotion > 0) {
+            start = end;
+            mLastMotion = motion(count);
+            if (mLastMotion > mThresholds.mMaxMotion) result = MOTION;
+            record(2, System.nanoTime() - start);
+        }
+        // The next frame is compared against this one whatever happened to it.
+        byte[] swap = mPrevious;
+        mPrevious = mSamples;
+        mSamples = swap;
+        mPreviousCount = count;
+        mPreviousMeanLuma = mLastMeanLuma;
+        mRejected[result]++;
+        return result;
+    }
+
+    private int sampleLuma(byte[] nv21, int width, int height) {
+        int count = ((width + STEP - 1) / STEP) * ((height + STEP - 1) / STEP);
+        if (mSamples == null || mSamples.length < count) mSamples = new byte[count];
+        byte[] samples = mSamples;
+        int[] histogram = mHistogram;
+        Arrays.fill(histogram, 0);
+        int i = 0;
+        for (int y = 0; y < height; y += STEP) {
+            int row = y * width;
+            for (int x = 0; x < width; x += STEP) {
+                byte value = nv21[row + x];
+                samples[i++] = value;
+                histogram[value & 0xff]++;
+            }
+        }
+        return count;
+    }
+
+    private int checkLuma(int count) {
+        long sum = 0;
+        int bright = 0;
+        for (int level = 0; level < 256; level++) {
+            sum += (long) level * mHistogram[level];
+            if (level >= BRIGHT_LEVEL) bright += mHistogram[level];
+        }
+        mLastMeanLuma = (double) sum / count;
+        if (mThresholds.mMinLuma > 0 && mLastMeanLuma < mThresholds.mMinLuma) return DARK;
+        if (mThresholds.mMaxBrightPercent > 0 && bright * 100L > (long) mThresholds.mMaxBrightPercent * count) {
+            return BRIGHT;
+        }
+        return PASS;
+    }
+
+    /** Variance of the full-resolution Laplacian, evaluated at the sampled interior points. */
+    private static double sharpness(byte[] nv21, int width, int height) {
+        long sum = 0;
+        long sumSquares = 0;
+        int n = 0;
+        for (int y = STEP; y < height - 1; y += STEP) {
+            int row = y * width;
+            for (int x = STEP; x < width - 1; x += STEP) {
+                int i = row + x;
+                int lap = 4 * (nv21[i] & 0xff) - (nv21[i - 1] & 0xff) - (nv21[i + 1] & 0xff)
+                        - (nv21[i - width] & 0xff) - (nv21[i + width] & 0xff);
+                sum += lap;
+                sumSquares += (long) lap * lap;
+                n++;
+            }
+        }
+        if (n == 0) return 0;
+        double mean = (double) sum / n;
+        return (double) sumSquares / n - mean * mean;
+    }
+
+    private double motion(int count) {
+        if (mPrevious == null || mPreviousCount != count) return 0;
+        byte[] previous = mPrevious;
+        byte[] samples = mSamples;
+        int offset = (int) Math.round(mLastMeanLuma - mPreviousMeanLuma);
+        long diff = 0;
+        for (int i = 0; i < count; i++) {
+            diff += Math.abs((samples[i] & 0xff) - (previous[i] & 0xff) - offset);
+        }
+        return (double) diff / count;
+    }
+
+    private void record(int stage, long nanos) {
+        mStageNanos[stage] += nanos;
+        mStageRuns[stage]++;
+    }
+
+    /** Forgets the previous frame, e.g. when the preview restarts. */
+    public synchronized void reset() {
+        mPreviousCount = 0;
+    }
+
+    public synchronized long getRejectedCount(int reason) {
+        return mRejected[reason];
+    }
+
+    /** Average time of a stage (0 luma, 1 blur, 2 motion) in microseconds. */
+    public synchronized long getStageAverageMicros(int stage) {
+        return mStageRuns[stage] == 0 ? 0 : mStageNanos[stage] / mStageRuns[stage] / 1000;
+    }
+
+    public synchronized double getLastMeanLuma() {
+        return mLastMeanLuma;
+    }
+
+    public synchronized double getLastSharpness() {
+        return mLastSharpness;
+    }
+
+    public synchronized double getLastMotion() {
+        return mLastMotion;
+    }
+
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder("FrameQualityFilter{");
+        for (int reason = 0; reason < REASONS.length; reason++) {
+            sb.append(REASONS[reason]).append('=').append(mRejected[reason]).append(", ");
+        }
+        return sb.append("lumaUs=").append(getStageAverageMicros(0))
+                .append(", blurUs=").append(getStageAverageMicros(1))
+                .append(", motionUs=").append(getStageAverageMicros(2)).append('}').toString();
+    }
+}
@@ -0,0 +1,137 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches the auth preview rate to what compare can actually consume. A
+ * moving percentile of recent per-frame compare latency gives the rate the
+ * engine keeps up with. Frames arriving faster than that are skipped at the
+ * source, and every {@link #EVALUATE_EVERY} compares the lowest supported fps
+ * range that still covers the rate (plus {@link #HEADROOM}) is proposed. The
+ * window slides, so a thermally throttled engine lowers the rate and a
+ * recovered one raises it again; a new range is only proposed once two
+ * evaluations in a row agree.
+ */
+public class FrameRateGovernor {
+    static final int WINDOW = 16;
+    static final int PERCENTILE = 90;
+    static final int EVALUATE_EVERY = 8;
+    static final double HEADROOM = 1.25;
+
+    private final List<int[]> mRanges = new ArrayList<>();
+    private final long[] mLatencies = new long[WINDOW];
+    private int mLatencyCount = 0;
+    private int mLatencyHead = 0;
+    private int mSinceEvaluate = 0;
+
+    private int[] mCurrent;
+    private int[] mCandidate;
+    private long mMinIntervalNanos = 0;
+    private long mLastAcceptedNanos = 0;
+
+    private long mCaptured = 0;
+    private long mSkipped = 0;
+    private long mProcessed = 0;
+    private int mRangeChanges = 0;
+
+    /** @param fpsRanges supported ranges as reported by the camera, camera1 (x1000) or camera2 units */
+    public FrameRateGovernor(List<int[]> fpsRanges) {
+        if (fpsRanges != null) mRanges.addAll(fpsRanges);
+    }
+
+    /** Camera1 reports fps scaled by 1000, camera2 plain fps. */
+    static int toFps(int value) {
+        return value >= 1000 ? value / 1000 : value;
+    }
+
+    /** Called for every captured frame; returns false if it should be skipped at the source. */
+    public synchronized boolean onFrameCaptured(long nowNanos) {
+        mCaptured++;
+        if (mMinIntervalNanos > 0 && nowNanos - mLastAcceptedNanos < mMinIntervalNanos) {
+            mSkipped++;
+            return false;
+        }
+        mLastAcceptedNanos = nowNanos;
+        return true;
+    }
+
+    /**
+     * Records the per-frame latency of one compare. Returns the fps range to
+     * switch to, in the camera's units, or null to keep the current one.
+     */
+    public synchronized int[] onCompare(int frames, long latencyNanos) {
+        mProcessed += frames;
+        mLatencies[mLatencyHead] = latencyNanos / Math.max(1, frames);
+        mLatencyHead = (mLatencyHead + 1) % WINDOW;
+        if (mLatencyCount < WINDOW) mLatencyCount++;
+        if (++mSinceEvaluate < EVALUATE_EVERY) return null;
+        mSinceEvaluate = 0;
+        return evaluate();
+    }
+
+    private int[] evaluate() {
+        long latency = getLatencyPercentileNanos();
+        if (latency <= 0) return null;
+        // Skip frames that would only queue up behind a compare in progress.
+        mMinIntervalNanos = latency * 9 / 10;
+        double targetFps = 1e9 / latency * HEADROOM;
+        int[] best = null;
+        int[] fastest = null;
+        for (int[] range : mRanges) {
+            int max = toFps(range[1]);
+            if (fastest == null || max > toFps(fastest[1])) fastest = range;
+            if (max < targetFps) continue;
+            if (best == null || max < toFps(best[1])
+                    || (max == toFps(best[1]) && range[0] < best[0])) {
+                best = range;
+            }
+        }
+        if (best == null) best = fastest;
+        if (best == null || best == mCurrent) {
+            mCandidate = null;
+            return null;
+        }
+        if (best != mCandidate) {
+            mCandidate = best;
+            return null;
+        }
+        mCandidate = null;
+        mCurrent = best;
+        mRangeChanges++;
+        return best;
+    }
+
+    public synchronized long getLatencyPercentileNanos() {
+        if (mLatencyCount == 0) return 0;
+        long[] sorted = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(sorted);
+        return sorted[Math.min(mLatencyCount - 1, (mLatencyCount * PERCENTILE + 99) / 100 - 1)];
+    }
+
+    /** The range last proposed, or null while the camera runs at its default rate. */
+    public synchronized int[] getCurrentRange() {
+        return mCurrent;
+    }
+
+    public synchronized long getCapturedCount() {
+        return mCaptured;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkipped;
+    }
+
+    public synchronized long getProcessedCount() {
+        return mProcessed;
+    }
+
+    public synchronized String dump() {
+        return "FrameRateGovernor{captured=" + mCaptured + ", skipped=" + mSkipped + ", processed=" + mProcessed
+                + ", processedRatio=" + (mCaptured == 0 ? 0 : mProcessed * 100 / mCaptured) + "%"
+                + ", p" + PERCENTILE + "Ms=" + getLatencyPercentileNanos() / 1000000
+                + ", range=" + (mCurrent == null ? "default" : mCurrent[0] + "-" + mCurrent[1])
+                + ", rangeChanges=" + mRangeChanges + "}";
+    }
+}
@@ -0,0 +1,261 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Crops and scales NV21 frames in a single pass. Downscaling averages every
+ * source pixel covered by a destination pixel (a plain 2x2 box filter for the
+ * common half-size case) on both the luma and the interleaved VU plane, and
+ * with a parallelism above one the rows are split into bands across a small
+ * fork-join pool.
+ */
+public class NV21Resampler {
+    private static final int MIN_BAND_ROWS = 32;
+
+    private final ForkJoinPool mPool;
+    // Per-axis source box boundaries, cached for the last geometry.
+    private int[] mLumaX = new int[0];
+    private int[] mLumaY = new int[0];
+    private int[] mChromaX = new int[0];
+    private int[] mChromaY = new int[0];
+    private int mCachedKey = 0;
+
+    /** @param parallelism row bands resampled side by side; 1 runs on the caller without a pool */
+    public NV21Resampler(int parallelism) {
+        mPool = parallelism > 1 ? new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("face_resample_" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false) : null;
+    }
+
+    /**
+     * Resamples the crop rectangle of {@code src} into {@code dst}. Crop offsets
+     * and all dimensions are rounded down to even values so chroma stays aligned.
+     */
+    public synchronized void resample(byte[] src, int srcWidth, int srcHeight,
+                                      int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                                      byte[] dst, int dstWidth, int dstHeight) {
+        cropLeft &= ~1;
+        cropTop &= ~1;
+        cropWidth = Math.min(cropWidth, srcWidth - cropLeft) & ~1;
+        cropHeight = Math.min(cropHeight, srcHeight - cropTop) & ~1;
+        dstWidth &= ~1;
+        dstHeight &= ~1;
+        if (cropWidth <= 0 || cropHeight <= 0 || dstWidth <= 0 || dstHeight <= 0) return;
+        if (src.length < srcWidth * srcHeight * 3 / 2 || dst.length < dstWidth * dstHeight * 3 / 2) return;
+
+        prepareBoxes(cropWidth, cropHeight, dstWidth, dstHeight);
+        Job job = new Job(src, srcWidth, srcHeight, cropLeft, cropTop, cropWidth, cropHeight, dst, dstWidth, dstHeight);
+        // A pure crop is a row copy; splitting it only costs the hand-off.
+        if (mPool == null || dstHeight < MIN_BAND_ROWS * 2 || job.mIdentity) {
+            job.rows(0, dstHeight);
+        } else {
+            mPool.invoke(new Band(job, 0, dstHeight, Math.max(MIN_BAND_ROWS, dstHeight / (mPool.getParallelism() * 2))));
+        }
+    }
+
+    /**
+     * Maps a camera frame onto the enrollment frame the way enrollment always
+     * framed it: a source of exactly twice the destination size is scaled down
+     * 2x, any other source at least as large is center-cropped without scaling,
+     * so the face keeps the scale auth compares at. Smaller sources are
+     * center-cropped to the destination aspect ratio and scaled up.
+     */
+    public void resampleCentered(byte[] src, int srcWidth, int srcHeight, byte[] dst, int dstWidth, int dstHeight) {
+        if (srcWidth == dstWidth * 2 && srcHeight == dstHeight * 2) {
+            resample(src, srcWidth, srcHeight, 0, 0, srcWidth, srcHeight, dst, dstWidth, dstHeight);
+            return;
+        }
+        if (srcWidth >= dstWidth && srcHeight >= dstHeight) {
+            resample(src, srcWidth, srcHeight, (srcWidth - dstWidth) / 2, (srcHeight - dstHeight) / 2,
+                    dstWidth, dstHeight, dst, dstWidth, dstHeight);
+            return;
+        }
+        int cropWidth = srcWidth;
+        int cropHeight = srcHeight;
+        if ((long) srcWidth * dstHeight > (long) srcHeight * dstWidth) {
+            cropWidth = (int) ((long) srcHeight * dstWidth / dstHeight);
+        } else {
+            cropHeight = (int) ((long) srcWidth * dstHeight / dstWidth);
+        }
+        resample(src, srcWidth, srcHeight, (srcWidth - cropWidth) / 2, (srcHeight - cropHeight) / 2,
+                cropWidth, cropHeight, dst, dstWidth, dstHeight);
+    }
+
+    private void prepareBoxes(int cropWidth, int cropHeight, int dstWidth, int dstHeight) {
+        int key = ((cropWidth * 31 + cropHeight) * 31 + dstWidth) * 31 + dstHeight;
+        if (key == mCachedKey && mLumaX.length == dstWidth + 1 && mLumaY.length == dstHeight + 1) return;
+        mLumaX = boxes(cropWidth, dstWidth);
+        mLumaY = boxes(cropHeight, dstHeight);
+        mChromaX = boxes(cropWidth / 2, dstWidth / 2);
+        mChromaY = boxes(cropHeight / 2, dstHeight / 2);
+        mCachedKey = key;
+    }
+
+    /** Start of the source span for every destination index; each span covers at least one pixel. */
+    private static int[] boxes(int srcLength, int dstLength) {
+        int[] bounds = new int[dstLength + 1];
+        for (int i = 0; i <= dstLength; i++) {
+            bounds[i] = (int) ((long) i * srcLength / dstLength);
+        }
+        return bounds;
+    }
+
+    private static int end(int[] bounds, int i, int limit) {
+        return Math.min(limit, Math.max(bounds[i + 1], bounds[i] + 1));
+    }
+
+    public void shutdown() {
+        if (mPool != null) mPool.shutdown();
+    }
+
+    private final class Job {
+        final byte[] mSrc;
+        final int mSrcWidth;
+        final int mCropLeft;
+        final int mCropTop;
+        final int mCropWidth;
+        final int mCropHeight;
+        final int mSrcChromaStart;
+        final byte[] mDst;
+        final int mDstWidth;
+        final int mDstChromaStart;
+        final boolean mIdentity;
+        final boolean mHalf;
+        final int[] mLx = mLumaX;
+        final int[] mLy = mLumaY;
+        final int[] mCx = mChromaX;
+        final int[] mCy = mChromaY;
+
+        Job(byte[] src, int srcWidth, int srcHeight, int cropLeft, int cropTop, int cropWidth, int cropHeight,
+            byte[] dst, int dstWidth, int dstHeight) {
+            mSrc = src;
+            mSrcWidth = srcWidth;
+            mCropLeft = cropLeft;
+            mCropTop = cropTop;
+            mCropWidth = cropWidth;
+            mCropHeight = cropHeight;
+            mSrcChromaStart = srcWidth * srcHeight;
+            mDst = dst;
+            mDstWidth = dstWidth;
+            mDstChromaStart = dstWidth * dstHeight;
+            mIdentity = cropWidth == dstWidth && cropHeight == dstHeight;
+            mHalf = cropWidth == dstWidth * 2 && cropHeight == dstHeight * 2;
+        }
+
+        /** Processes destination rows [from, to); both bounds are even. */
+        void rows(int from, int to) {
+            for (int y = from; y < to; y++) lumaRow(y);
+            for (int y = from / 2; y < to / 2; y++) chromaRow(y);
+        }
+
+        private void lumaRow(int y) {
+            int dstRow = y * mDstWidth;
+            if (mIdentity) {
+                System.arraycopy(mSrc, (mCropTop + y) * mSrcWidth + mCropLeft, mDst, dstRow, mDstWidth);
+                return;
+            }
+            if (mHalf) {
+                final byte[] src = mSrc;
+                final byte[] dst = mDst;
+                int s0 = (mCropTop + y * 2) * mSrcWidth + mCropLeft;
+                int s1 = s0 + mSrcWidth;
+                int d = dstRow;
+                int dEnd = dstRow + mDstWidth;
+                while (d < dEnd) {
+                    int sum = (src[s0] & 0xff) + (src[s0 + 1] & 0xff) + (src[s1] & 0xff) + (src[s1 + 1] & 0xff);
+                    dst[d++] = (byte) ((sum + 2) >> 2);
+                    s0 += 2;
+                    s1 += 2;
+                }
+                return;
+            }
+            int y0 = mLy[y];
+            int y1 = end(mLy, y, mCropHeight);
+            for (int x = 0; x < mDstWidth; x++) {
+                int x0 = mLx[x];
+                int x1 = end(mLx, x, mCropWidth);
+                int sum = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    int row = (mCropTop + sy) * mSrcWidth + mCropLeft;
+                    for (int sx = x0; sx < x1; sx++) sum += mSrc[row + sx] & 0xff;
+                }
+                int count = (y1 - y0) * (x1 - x0);
+                mDst[dstRow + x] = (byte) ((sum + count / 2) / count);
+            }
+        }
+
+        private void chromaRow(int y) {
+            int dstRow = mDstChromaStart + y * mDstWidth;
+            int srcLeft = mCropLeft;
+            if (mIdentity) {
+                System.arraycopy(mSrc, mSrcChromaStart + (mCropTop / 2 + y) * mSrcWidth + srcLeft, mDst, dstRow, mDstWidth);
+                return;
+            }
+            int pairs = mDstWidth / 2;
+            if (mHalf) {
+                final byte[] src = mSrc;
+                final byte[] dst = mDst;
+                int s0 = mSrcChromaStart + (mCropTop / 2 + y * 2) * mSrcWidth + srcLeft;
+                int s1 = s0 + mSrcWidth;
+                int d = dstRow;
+                int dEnd = dstRow + pairs * 2;
+                while (d < dEnd) {
+                    int v = (src[s0] & 0xff) + (src[s0 + 2] & 0xff) + (src[s1] & 0xff) + (src[s1 + 2] & 0xff);
+                    int u = (src[s0 + 1] & 0xff) + (src[s0 + 3] & 0xff) + (src[s1 + 1] & 0xff) + (src[s1 + 3] & 0xff);
+                    dst[d++] = (byte) ((v + 2) >> 2);
+                    dst[d++] = (byte) ((u + 2) >> 2);
+                    s0 += 4;
+                    s1 += 4;
+                }
+                return;
+            }
+            int y0 = mCy[y];
+            int y1 = end(mCy, y, mCropHeight / 2);
+            for (int x = 0; x < pairs; x++) {
+                int x0 = mCx[x];
+                int x1 = end(mCx, x, mCropWidth / 2);
+                int v = 0;
+                int u = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    int row = mSrcChromaStart + (mCropTop / 2 + sy) * mSrcWidth + srcLeft;
+                    for (int sx = x0; sx < x1; sx++) {
+                        v += mSrc[row + sx * 2] & 0xff;
+                        u += mSrc[row + sx * 2 + 1] & 0xff;
+                    }
+                }
+                int count = (y1 - y0) * (x1 - x0);
+                mDst[dstRow + x * 2] = (byte) ((v + count / 2) / count);
+                mDst[dstRow + x * 2 + 1] = (byte) ((u + count / 2) / count);
+            }
+        }
+    }
+
+    private static final class Band extends RecursiveAction {
+        private final Job mJob;
+        private final int mFrom;
+        private final int mTo;
+        private final int mMinRows;
+
+        Band(Job job, int from, int to, int minRows) {
+            mJob = job;
+            mFrom = from;
+            mTo = to;
+            mMinRows = minRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mMinRows) {
+                mJob.rows(mFrom, mTo);
+                return;
+            }
+            int mid = (mFrom + (mTo - mFrom) / 2) & ~1;
+            invokeAll(new Band(mJob, mFrom, mid, mMinRows), new Band(mJob, mid, mTo, mMinRows));
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package ax.nd.faceunlock.camera.callables;
 
 import java.lang.ref.WeakReference;
-import android.os.Handler;
-import android.os.Looper;
 import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.FacePipeline;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 
 public abstract class CameraCallable implements Runnable {
@@ -21,8 +20,9 @@ public abstract class CameraCallable implements Runnable {
         return this.mCameraListener.get();
     }
 
+    /** Delivers listener callbacks on the face control thread, not the shared main looper. */
     public static void runOnUiThread(Runnable runnable) {
-        new Handler(Looper.getMainLooper()).post(runnable);
+        FacePipeline.timed(FacePipeline.getInstance().getControlHandler(), "camera.listener.queue_ms").execute(runnable);
     }
     
     @Override
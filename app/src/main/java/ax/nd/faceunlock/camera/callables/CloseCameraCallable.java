@@ -5,9 +5,13 @@ import ax.nd.faceunlock.camera.listeners.CameraListener;
 import android.hardware.Camera;
 
 public class CloseCameraCallable extends CameraCallable {
+    // Held strongly: callers release pooled buffers on completion, so the
+    // listener must survive until the close has actually run.
+    private final CameraListener mCloseListener;
 
     public CloseCameraCallable(CameraListener cameraListener) {
         super(cameraListener);
+        mCloseListener = cameraListener;
     }
 
     @Override
@@ -25,8 +29,9 @@ public class CloseCameraCallable extends CameraCallable {
             }
         }
         
-        if (getCameraListener() != null) {
-            CameraCallable.runOnUiThread(() -> getCameraListener().onComplete(null));
+        final CameraListener listener = mCloseListener;
+        if (listener != null) {
+            CameraCallable.runOnUiThread(() -> listener.onComplete(null));
         }
     }
 }
\ No newline at end of file
@@ -4,11 +4,10 @@ import android.hardware.Camera;
 import android.view.Surface;
 import android.util.Log;
 import java.lang.reflect.Method;
-import java.util.Collections;
-import java.util.List;
-import java.util.Comparator;
-import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.CameraCapabilities;
+import ax.nd.faceunlock.camera.CameraCapabilityCache;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.util.FaceMetrics;
 
 public class ConfigureAndStartPreviewCallable extends CameraCallable {
     private static final String TAG = "ConfigStartCallable";
@@ -38,17 +37,29 @@ public class ConfigureAndStartPreviewCallable extends CameraCallable {
                 Log.w(TAG, "Failed to set orientation", e);
             }
 
+            long start = System.nanoTime();
+            boolean cached = false;
             try {
                 Camera.Parameters params = camera.getParameters();
-                Camera.Size bestSize = findBestSize(params);
+                CameraCapabilityCache cache = CameraCapabilityCache.getInstance();
+                int cameraId = getCameraData().mCameraId;
+                CameraCapabilities caps = cache.get(CameraCapabilities.key("camera1", cameraId));
+                cached = caps != null;
+                if (!cached) caps = CameraCapabilityCache.probeCamera1(cameraId, params);
+                int[] bestSize = caps.getEnrollSize();
                 if (bestSize != null) {
-                    Log.d(TAG, "Setting Preview Size: " + bestSize.width + "x" + bestSize.height);
-                    params.setPreviewSize(bestSize.width, bestSize.height);
+                    Log.d(TAG, "Setting Preview Size: " + bestSize[0] + "x" + bestSize[1]);
+                    params.setPreviewSize(bestSize[0], bestSize[1]);
                     camera.setParameters(params);
                 }
-                getCameraData().mParameters = camera.getParameters();
+                getCameraData().mParameters = params;
+                if (!cached) cache.put(caps);
+                FaceMetrics.getInstance().recordLatency(cached ? "camera.setup_ms.cached" : "camera.setup_ms.cold",
+                        (System.nanoTime() - start) / 1000000);
             } catch (Exception e) {
                 Log.e(TAG, "Failed to configure parameters", e);
+                if (cached) CameraCapabilityCache.getInstance().clear();
+                getCameraData().mParameters = null;
             }
 
             if (mSurface != null) {
@@ -76,28 +87,4 @@ public class ConfigureAndStartPreviewCallable extends CameraCallable {
             }
         }
     }
-
-    private Camera.Size findBestSize(Camera.Parameters params) {
-        List<Camera.Size> sizes = params.getSupportedPreviewSizes();
-        if (sizes == null) return null;
-
-        Collections.sort(sizes, new Comparator<Camera.Size>() {
-            @Override
-            public int compare(Camera.Size a, Camera.Size b) {
-                return (b.width * b.height) - (a.width * a.height);
-            }
-        });
-
-        for (Camera.Size s : sizes) {
-            if (s.width == s.height && s.width >= 480) {
-                return s;
-            }
-        }
-
-        for (Camera.Size s : sizes) {
-            if (s.width == 640 && s.height == 480) return s;
-        }
-
-        return sizes.get(0);
-    }
-}
\ No newline at end of file
+}
@@ -3,6 +3,8 @@ package ax.nd.faceunlock.camera.callables;
 import android.hardware.Camera;
 import android.util.Log;
 
+import ax.nd.faceunlock.camera.CameraCapabilities;
+import ax.nd.faceunlock.camera.CameraCapabilityCache;
 import ax.nd.faceunlock.camera.CameraRepository;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
@@ -33,7 +35,13 @@ public class OpenCameraCallable extends CameraCallable {
             if (cameraData.mCameraInfo == null) {
                 cameraData.mCameraInfo = new Camera.CameraInfo();
             }
-            Camera.getCameraInfo(mCameraId, cameraData.mCameraInfo);
+            CameraCapabilities caps = CameraCapabilityCache.getInstance().get(CameraCapabilities.key("camera1", mCameraId));
+            if (caps != null) {
+                cameraData.mCameraInfo.facing = caps.getFacing();
+                cameraData.mCameraInfo.orientation = caps.getOrientation();
+            } else {
+                Camera.getCameraInfo(mCameraId, cameraData.mCameraInfo);
+            }
 
             if (getCameraListener() != null) {
                 getCameraListener().onComplete(cameraData.mCamera);
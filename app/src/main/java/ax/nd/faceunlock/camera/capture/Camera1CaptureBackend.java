@@ -0,0 +1,206 @@
+package ax.nd.faceunlock.camera.capture;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import ax.nd.faceunlock.camera.CameraCapabilities;
+import ax.nd.faceunlock.camera.CameraCapabilityCache;
+import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.callables.CloseCameraCallable;
+import ax.nd.faceunlock.camera.callables.ConfigureAndStartPreviewCallable;
+import ax.nd.faceunlock.camera.callables.OpenCameraCallable;
+import ax.nd.faceunlock.camera.callables.SetFaceDetectionCallback;
+import ax.nd.faceunlock.camera.callables.SetPreviewCallbackCallable;
+import ax.nd.faceunlock.camera.callables.StartPreviewCallable;
+import ax.nd.faceunlock.camera.callables.StopPreviewCallable;
+import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.camera.listeners.FaceDetectionResultListener;
+import ax.nd.faceunlock.util.FaceMetrics;
+
+/** {@link CaptureBackend} on top of the legacy android.hardware.Camera callables. */
+public class Camera1CaptureBackend implements CaptureBackend {
+    private static final String TAG = "Camera1CaptureBackend";
+
+    private CameraRepository.CameraData getCameraData() {
+        return CameraRepository.getInstance().getCameraData();
+    }
+
+    @Override
+    public String getName() {
+        return "camera1";
+    }
+
+    @Override
+    public void open(int cameraId, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        new OpenCameraCallable(cameraId, errorCallbackListener, cameraListener).run();
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+        CameraRepository.CameraData cameraData = getCameraData();
+        Camera camera = cameraData.mCamera;
+        if (camera == null) return;
+        long start = System.nanoTime();
+        boolean cached = false;
+        try {
+            Camera.Parameters params = camera.getParameters();
+            CameraCapabilityCache cache = CameraCapabilityCache.getInstance();
+            CameraCapabilities caps = cache.get(CameraCapabilities.key(getName(), cameraData.mCameraId));
+            cached = caps != null;
+            if (!cached) caps = CameraCapabilityCache.probeCamera1(cameraData.mCameraId, params);
+
+            int[] bestSize = caps.getAuthSize(width, height);
+            if (bestSize != null) {
+                params.setPreviewSize(bestSize[0], bestSize[1]);
+                Log.i(TAG, "Requested Camera Size: " + bestSize[0] + "x" + bestSize[1]);
+            }
+
+            params.setPreviewFormat(ImageFormat.NV21);
+
+            camera.setParameters(params);
+            cameraData.mParameters = params;
+            if (!cached) cache.put(caps);
+            FaceMetrics.getInstance().recordLatency(cached ? "camera.setup_ms.cached" : "camera.setup_ms.cold",
+                    (System.nanoTime() - start) / 1000000);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to set camera parameters", e);
+            // The HAL may have changed under the same fingerprint; probe again next time.
+            if (cached) CameraCapabilityCache.getInstance().clear();
+        }
+    }
+
+    private Camera.Size getPreviewSize() {
+        CameraRepository.CameraData cameraData = getCameraData();
+        try {
+            if (cameraData.mParameters == null && cameraData.mCamera != null) {
+                cameraData.mParameters = cameraData.mCamera.getParameters();
+            }
+            return cameraData.mParameters != null ? cameraData.mParameters.getPreviewSize() : null;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to read preview size", e);
+            return null;
+        }
+    }
+
+    @Override
+    public int getPreviewWidth() {
+        Camera.Size size = getPreviewSize();
+        return size != null ? size.width : 0;
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        Camera.Size size = getPreviewSize();
+        return size != null ? size.height : 0;
+    }
+
+    @Override
+    public void startPreview(SurfaceTexture surfaceTexture, CameraListener cameraListener) {
+        new StartPreviewCallable(surfaceTexture, cameraListener).run();
+    }
+
+    @Override
+    public void startPreview(SurfaceHolder surfaceHolder, CameraListener cameraListener) {
+        new StartPreviewCallable(surfaceHolder, cameraListener).run();
+    }
+
+    @Override
+    public void configureAndStartPreview(Surface surface, CameraListener cameraListener) {
+        new ConfigureAndStartPreviewCallable(surface, cameraListener).run();
+    }
+
+    @Override
+    public void stopPreview(CameraListener cameraListener) {
+        new StopPreviewCallable(cameraListener).run();
+    }
+
+    @Override
+    public void setPreviewFpsRange(int min, int max, CameraListener cameraListener) {
+        CameraRepository.CameraData cameraData = getCameraData();
+        Camera camera = cameraData.mCamera;
+        try {
+            if (camera == null) throw new IllegalStateException("Camera null");
+            Camera.Parameters params = cameraData.mParameters != null ? cameraData.mParameters : camera.getParameters();
+            params.setPreviewFpsRange(min, max);
+            camera.setParameters(params);
+            cameraData.mParameters = params;
+            Log.i(TAG, "Preview fps range: " + min + "-" + max);
+            if (cameraListener != null) cameraListener.onComplete(null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to set preview fps range", e);
+            cameraData.mParameters = null;
+            if (cameraListener != null) cameraListener.onError(e);
+        }
+    }
+
+    @Override
+    public void setFaceDetectionListener(FaceDetectionResultListener listener, CameraListener cameraListener) {
+        CameraRepository.CameraData cameraData = getCameraData();
+        Camera camera = cameraData.mCamera;
+        if (camera == null) {
+            if (cameraListener != null) cameraListener.onError(new IllegalStateException("Camera null"));
+            return;
+        }
+        if (listener == null) {
+            new SetFaceDetectionCallback(null, cameraListener).run();
+            return;
+        }
+        try {
+            Camera.Parameters params = cameraData.mParameters != null ? cameraData.mParameters : camera.getParameters();
+            if (params.getMaxNumDetectedFaces() <= 0) {
+                if (cameraListener != null) cameraListener.onError(new UnsupportedOperationException("No face detection"));
+                return;
+            }
+        } catch (RuntimeException e) {
+            if (cameraListener != null) cameraListener.onError(e);
+            return;
+        }
+        new SetFaceDetectionCallback((faces, cam) -> {
+            Camera.Face best = null;
+            if (faces != null) {
+                for (Camera.Face face : faces) {
+                    if (best == null || face.score > best.score) best = face;
+                }
+            }
+            FaceDetectionResultListener.FaceData data = null;
+            if (best != null) {
+                // Camera1 face rects span -1000..1000 over the sensor field of view.
+                data = new FaceDetectionResultListener.FaceData();
+                data.mScore = best.score;
+                data.mLeft = (best.rect.left + 1000) / 2000f;
+                data.mTop = (best.rect.top + 1000) / 2000f;
+                data.mRight = (best.rect.right + 1000) / 2000f;
+                data.mBottom = (best.rect.bottom + 1000) / 2000f;
+            }
+            listener.onEventCallback(faces != null ? faces.length : 0, data);
+        }, cameraListener).run();
+    }
+
+    @Override
+    public void setPreviewCallback(ByteBufferCallbackListener callback, boolean withBuffer, CameraListener cameraListener) {
+        new SetPreviewCallbackCallable(callback, withBuffer, cameraListener).run();
+    }
+
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        Camera camera = getCameraData().mCamera;
+        if (camera == null) return;
+        try {
+            camera.addCallbackBuffer(buffer);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "addCallbackBuffer on a released camera", e);
+        }
+    }
+
+    @Override
+    public void close(CameraListener cameraListener) {
+        new CloseCameraCallable(cameraListener).run();
+        getCameraData().mParameters = null;
+    }
+}
@@ -0,0 +1,471 @@
+package ax.nd.faceunlock.camera.capture;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.Face;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import ax.nd.faceunlock.camera.CameraCapabilities;
+import ax.nd.faceunlock.camera.CameraCapabilityCache;
+import ax.nd.faceunlock.camera.FrameBufferPool;
+import ax.nd.faceunlock.camera.callables.CameraCallable;
+import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.camera.listeners.FaceDetectionResultListener;
+
+import com.megvii.facepp.sdk.NV21Converter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link CaptureBackend} using camera2 and a YUV_420_888 {@link ImageReader}.
+ * Images are converted to NV21 straight into caller-supplied (pooled) buffers,
+ * so frames are dropped rather than allocated when no buffer is available.
+ */
+public class Camera2CaptureBackend implements CaptureBackend {
+    private static final String TAG = "Camera2CaptureBackend";
+    private static final int MAX_IMAGES = 2;
+    // CameraMetadata.STATISTICS_FACE_DETECT_MODE_SIMPLE / _FULL
+    private static final int FACE_DETECT_MODE_SIMPLE = 1;
+    private static final int FACE_DETECT_MODE_FULL = 2;
+
+    private final CameraManager mCameraManager;
+    private final ArrayDeque<byte[]> mCallbackBuffers = new ArrayDeque<>();
+    private final NV21Converter mConverter = new NV21Converter();
+    private Handler mHandler;
+    private FrameBufferPool.Session mUnbufferedSession;
+
+    private String mCameraId;
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private ImageReader mReader;
+    private Size mPreviewSize = new Size(640, 480);
+    private Range<Integer> mFpsRange;
+    private List<Surface> mTargets;
+    private int mFaceDetectMode = 0;
+    private volatile FaceDetectionResultListener mFaceListener;
+    private volatile Rect mActiveArray;
+    private volatile ByteBufferCallbackListener mFrameCallback;
+    private volatile boolean mWithBuffer;
+    // Bumped on close so a late onOpened from an abandoned open releases the device.
+    private int mGeneration = 0;
+    // Device being closed and the listener waiting for its onClosed.
+    private CameraDevice mClosingDevice;
+    private CameraListener mClosedListener;
+
+    public Camera2CaptureBackend(Context context) {
+        mCameraManager = context.getSystemService(CameraManager.class);
+    }
+
+    @Override
+    public String getName() {
+        return "camera2";
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null) mHandler = new Handler(Looper.myLooper());
+        return mHandler;
+    }
+
+    @Override
+    public void open(int cameraId, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        if (mDevice != null) close(null);
+        final int generation = ++mGeneration;
+        try {
+            mCameraId = String.valueOf(cameraId);
+            mCameraManager.openCamera(mCameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    if (generation != mGeneration) {
+                        camera.close();
+                        return;
+                    }
+                    mDevice = camera;
+                    if (cameraListener != null) cameraListener.onComplete(camera);
+                }
+
+                @Override
+                public void onClosed(CameraDevice camera) {
+                    if (camera != mClosingDevice) return;
+                    mClosingDevice = null;
+                    notifyClosed();
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    camera.close();
+                    if (mDevice == camera) mDevice = null;
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    Log.e(TAG, "Camera device error: " + error);
+                    camera.close();
+                    if (mDevice == camera) mDevice = null;
+                    if (generation != mGeneration) return;
+                    if (cameraListener != null) cameraListener.onError(new Exception("Camera device error " + error));
+                    if (errorCallbackListener != null) errorCallbackListener.onEventCallback(1, "Camera Open Failed");
+                }
+            }, getHandler());
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "Failed to open camera", e);
+            if (cameraListener != null) cameraListener.onError(e);
+            if (errorCallbackListener != null) errorCallbackListener.onEventCallback(1, "Camera Open Failed");
+        }
+    }
+
+    /** Cached capabilities of the open camera, probing its characteristics on a miss. */
+    private CameraCapabilities getCapabilities() {
+        CameraCapabilityCache cache = CameraCapabilityCache.getInstance();
+        String key = CameraCapabilities.key(getName(), Integer.parseInt(mCameraId));
+        CameraCapabilities caps = cache.get(key);
+        if (caps != null) return caps;
+        try {
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(mCameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size[] outputs = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+            if (outputs == null) return null;
+            List<int[]> sizes = new ArrayList<>();
+            for (Size size : outputs) sizes.add(new int[] {size.getWidth(), size.getHeight()});
+            List<int[]> fpsRanges = new ArrayList<>();
+            Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            if (ranges != null) {
+                for (Range<Integer> range : ranges) fpsRanges.add(new int[] {range.getLower(), range.getUpper()});
+            }
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            caps = new CameraCapabilities(key, facing != null ? facing : 0, orientation != null ? orientation : 0,
+                    sizes, Collections.singletonList(ImageFormat.YUV_420_888), fpsRanges);
+            cache.put(caps);
+            return caps;
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "Failed to read stream configuration", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+        CameraCapabilities caps = getCapabilities();
+        int[] best = caps != null ? caps.getAuthSize(width, height) : null;
+        if (best != null) {
+            mPreviewSize = new Size(best[0], best[1]);
+            Log.i(TAG, "Requested Camera Size: " + best[0] + "x" + best[1]);
+        }
+    }
+
+    @Override
+    public int getPreviewWidth() {
+        return mPreviewSize.getWidth();
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        return mPreviewSize.getHeight();
+    }
+
+    @Override
+    public void startPreview(SurfaceTexture surfaceTexture, CameraListener cameraListener) {
+        // The dummy texture only exists to satisfy camera1; camera2 streams to the reader alone.
+        startSession(null, cameraListener);
+    }
+
+    @Override
+    public void startPreview(SurfaceHolder surfaceHolder, CameraListener cameraListener) {
+        startSession(surfaceHolder != null ? surfaceHolder.getSurface() : null, cameraListener);
+    }
+
+    @Override
+    public void configureAndStartPreview(Surface surface, CameraListener cameraListener) {
+        CameraCapabilities caps = getCapabilities();
+        int[] best = caps != null ? caps.getEnrollSize() : null;
+        // Unlike camera1, never fall back to the (full sensor) largest size; keep 640x480.
+        if (best != null && (best[0] == best[1] || (best[0] == 640 && best[1] == 480))) {
+            mPreviewSize = new Size(best[0], best[1]);
+        }
+        startSession(surface, cameraListener);
+    }
+
+    private void startSession(Surface previewSurface, CameraListener cameraListener) {
+        if (mDevice == null) {
+            if (cameraListener != null) cameraListener.onError(new Exception("Camera null"));
+            return;
+        }
+        try {
+            if (mReader != null) mReader.close();
+            mReader = ImageReader.newInstance(mPreviewSize.getWidth(), mPreviewSize.getHeight(),
+                    ImageFormat.YUV_420_888, MAX_IMAGES);
+            mReader.setOnImageAvailableListener(this::onImageAvailable, getHandler());
+
+            final List<Surface> targets = new ArrayList<>();
+            targets.add(mReader.getSurface());
+            if (previewSurface != null) targets.add(previewSurface);
+            List<OutputConfiguration> outputs = new ArrayList<>();
+            for (Surface target : targets) outputs.add(new OutputConfiguration(target));
+
+            final CameraDevice device = mDevice;
+            final Handler handler = getHandler();
+            SessionConfiguration config = new SessionConfiguration(SessionConfiguration.SESSION_REGULAR, outputs,
+                    handler::post, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    if (device != mDevice) {
+                        session.close();
+                        return;
+                    }
+                    mSession = session;
+                    mTargets = targets;
+                    try {
+                        submitRepeatingRequest();
+                        if (cameraListener != null) cameraListener.onComplete(null);
+                    } catch (CameraAccessException | RuntimeException e) {
+                        Log.e(TAG, "Failed to start repeating request", e);
+                        if (cameraListener != null) cameraListener.onError(e);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Capture session configuration failed");
+                    if (cameraListener != null) cameraListener.onError(new Exception("Session configuration failed"));
+                }
+            });
+            device.createCaptureSession(config);
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "Failed to create capture session", e);
+            if (cameraListener != null) cameraListener.onError(e);
+        }
+    }
+
+    private void submitRepeatingRequest() throws CameraAccessException {
+        CaptureRequest.Builder builder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        for (Surface target : mTargets) builder.addTarget(target);
+        if (mFpsRange != null) builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+        CameraCaptureSession.CaptureCallback callback = null;
+        if (mFaceDetectMode != 0) {
+            builder.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, mFaceDetectMode);
+            callback = mFaceCallback;
+        }
+        mSession.setRepeatingRequest(builder.build(), callback, getHandler());
+    }
+
+    private final CameraCaptureSession.CaptureCallback mFaceCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            FaceDetectionResultListener listener = mFaceListener;
+            if (listener == null) return;
+            Face[] faces = result.get(CaptureResult.STATISTICS_FACES);
+            Face best = null;
+            if (faces != null) {
+                for (Face face : faces) {
+                    if (best == null || face.getScore() > best.getScore()) best = face;
+                }
+            }
+            FaceDetectionResultListener.FaceData data = null;
+            if (best != null) {
+                data = new FaceDetectionResultListener.FaceData();
+                data.mScore = best.getScore();
+                data.mRight = 1;
+                data.mBottom = 1;
+                Rect activeArray = mActiveArray;
+                if (activeArray != null && activeArray.width() > 0 && activeArray.height() > 0) {
+                    // Bounds are in active array coordinates; the preview is assumed to cover the whole array.
+                    Rect bounds = best.getBounds();
+                    data.mLeft = (float) (bounds.left - activeArray.left) / activeArray.width();
+                    data.mTop = (float) (bounds.top - activeArray.top) / activeArray.height();
+                    data.mRight = (float) (bounds.right - activeArray.left) / activeArray.width();
+                    data.mBottom = (float) (bounds.bottom - activeArray.top) / activeArray.height();
+                }
+            }
+            listener.onEventCallback(faces != null ? faces.length : 0, data);
+        }
+    };
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        try {
+            ByteBufferCallbackListener callback = mFrameCallback;
+            if (callback == null) return;
+            int frameSize = image.getWidth() * image.getHeight() * 3 / 2;
+            if (mWithBuffer) {
+                byte[] buffer = pollCallbackBuffer(frameSize);
+                if (buffer == null) return;
+                mConverter.convert(image, buffer);
+                callback.onEventCallback(0, buffer);
+            } else {
+                if (mUnbufferedSession == null) {
+                    mUnbufferedSession = FrameBufferPool.getInstance().openSession("camera2");
+                }
+                byte[] buffer = mUnbufferedSession.acquire(frameSize);
+                try {
+                    mConverter.convert(image, buffer);
+                    callback.onEventCallback(0, buffer);
+                } finally {
+                    mUnbufferedSession.recycle(buffer);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Frame conversion failed", e);
+        } finally {
+            image.close();
+        }
+    }
+
+    private byte[] pollCallbackBuffer(int frameSize) {
+        synchronized (mCallbackBuffers) {
+            byte[] buffer;
+            while ((buffer = mCallbackBuffers.pollFirst()) != null) {
+                if (buffer.length == frameSize) return buffer;
+                Log.w(TAG, "Discarding callback buffer of " + buffer.length + " bytes, frame needs " + frameSize);
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public void stopPreview(CameraListener cameraListener) {
+        try {
+            if (mSession != null) mSession.stopRepeating();
+            if (cameraListener != null) cameraListener.onComplete(null);
+        } catch (CameraAccessException | RuntimeException e) {
+            if (cameraListener != null) cameraListener.onError(e);
+        }
+    }
+
+    @Override
+    public void setPreviewFpsRange(int min, int max, CameraListener cameraListener) {
+        mFpsRange = new Range<>(min, max);
+        try {
+            // Applies to the running session right away, otherwise to the next one.
+            if (mSession != null && mDevice != null) submitRepeatingRequest();
+            if (cameraListener != null) cameraListener.onComplete(null);
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "Failed to set preview fps range", e);
+            if (cameraListener != null) cameraListener.onError(e);
+        }
+    }
+
+    @Override
+    public void setFaceDetectionListener(FaceDetectionResultListener listener, CameraListener cameraListener) {
+        int mode = 0;
+        if (listener != null) {
+            try {
+                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(mCameraId);
+                int[] modes = characteristics.get(CameraCharacteristics.STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES);
+                mActiveArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+                if (modes != null) {
+                    for (int available : modes) {
+                        if (available == FACE_DETECT_MODE_SIMPLE) mode = available;
+                        if (available == FACE_DETECT_MODE_FULL && mode == 0) mode = available;
+                    }
+                }
+            } catch (CameraAccessException | RuntimeException e) {
+                if (cameraListener != null) cameraListener.onError(e);
+                return;
+            }
+            if (mode == 0) {
+                if (cameraListener != null) cameraListener.onError(new UnsupportedOperationException("No face detection"));
+                return;
+            }
+        }
+        mFaceDetectMode = mode;
+        mFaceListener = listener;
+        try {
+            if (mSession != null && mDevice != null) submitRepeatingRequest();
+            if (cameraListener != null) cameraListener.onComplete(null);
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "Failed to set face detection", e);
+            if (cameraListener != null) cameraListener.onError(e);
+        }
+    }
+
+    @Override
+    public void setPreviewCallback(ByteBufferCallbackListener callback, boolean withBuffer, CameraListener cameraListener) {
+        mWithBuffer = withBuffer;
+        mFrameCallback = callback;
+        if (cameraListener != null) cameraListener.onComplete(null);
+    }
+
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        synchronized (mCallbackBuffers) {
+            mCallbackBuffers.addLast(buffer);
+        }
+    }
+
+    @Override
+    public void close(CameraListener cameraListener) {
+        mGeneration++;
+        mFrameCallback = null;
+        // A close that is still waiting for onClosed is superseded; let its caller go.
+        mClosingDevice = null;
+        notifyClosed();
+        CameraDevice device = mDevice;
+        try {
+            if (mSession != null) mSession.close();
+            if (device != null) {
+                mClosingDevice = device;
+                mClosedListener = cameraListener;
+                device.close();
+            }
+            if (mReader != null) mReader.close();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to close camera", e);
+            mClosingDevice = null;
+        } finally {
+            mSession = null;
+            mTargets = null;
+            mFpsRange = null;
+            mFaceDetectMode = 0;
+            mFaceListener = null;
+            mDevice = null;
+            mReader = null;
+        }
+        synchronized (mCallbackBuffers) {
+            mCallbackBuffers.clear();
+        }
+        if (mUnbufferedSession != null) {
+            mUnbufferedSession.close();
+            mUnbufferedSession = null;
+        }
+        // Without a device there is no onClosed to wait for.
+        if (mClosingDevice == null) {
+            mClosedListener = cameraListener;
+            notifyClosed();
+        }
+    }
+
+    private void notifyClosed() {
+        final CameraListener listener = mClosedListener;
+        mClosedListener = null;
+        if (listener != null) {
+            CameraCallable.runOnUiThread(() -> listener.onComplete(null));
+        }
+    }
+}
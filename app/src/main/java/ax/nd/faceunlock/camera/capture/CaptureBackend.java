@@ -0,0 +1,59 @@
+package ax.nd.faceunlock.camera.capture;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.camera.listeners.FaceDetectionResultListener;
+
+/**
+ * Capture API that {@link ax.nd.faceunlock.camera.CameraService} dispatches to.
+ * Every method except {@link #addCallbackBuffer(byte[])} is called on the
+ * CameraService thread. Frames are always delivered as NV21 byte arrays.
+ */
+public interface CaptureBackend {
+    String getName();
+
+    void open(int cameraId, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener);
+
+    /** Picks the supported preview size closest to the requested one. */
+    void setPreviewSize(int width, int height);
+
+    int getPreviewWidth();
+
+    int getPreviewHeight();
+
+    void startPreview(SurfaceTexture surfaceTexture, CameraListener cameraListener);
+
+    void startPreview(SurfaceHolder surfaceHolder, CameraListener cameraListener);
+
+    /** Selects the enrollment preview size and starts previewing to the given surface. */
+    void configureAndStartPreview(Surface surface, CameraListener cameraListener);
+
+    void stopPreview(CameraListener cameraListener);
+
+    /** Applies one of the supported preview fps ranges, in the units the camera reports them; may run while previewing. */
+    void setPreviewFpsRange(int min, int max, CameraListener cameraListener);
+
+    /**
+     * Starts hardware face detection on the running preview, or stops it when
+     * {@code listener} is null. Fails through {@code cameraListener} if the
+     * camera cannot detect faces. Has to be repeated after a preview restart.
+     */
+    void setFaceDetectionListener(FaceDetectionResultListener listener, CameraListener cameraListener);
+
+    /**
+     * With {@code withBuffer} frames are only delivered into buffers handed over
+     * through {@link #addCallbackBuffer(byte[])}; without it the array is only
+     * valid for the duration of the callback.
+     */
+    void setPreviewCallback(ByteBufferCallbackListener callback, boolean withBuffer, CameraListener cameraListener);
+
+    /** Safe to call from any thread. */
+    void addCallbackBuffer(byte[] buffer);
+
+    void close(CameraListener cameraListener);
+}
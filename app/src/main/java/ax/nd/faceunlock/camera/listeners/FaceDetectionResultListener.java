@@ -0,0 +1,19 @@
+package ax.nd.faceunlock.camera.listeners;
+
+/**
+ * Hardware face detection result of one preview frame: {@code i} is the
+ * number of faces, {@code value} the {@link FaceData} of the best one (null
+ * without faces).
+ */
+public interface FaceDetectionResultListener extends CallableEventListener {
+
+    class FaceData {
+        /** 1-100 */
+        public int mScore;
+        /** Bounds as fractions of the preview frame, in sensor orientation. */
+        public float mLeft;
+        public float mTop;
+        public float mRight;
+        public float mBottom;
+    }
+}
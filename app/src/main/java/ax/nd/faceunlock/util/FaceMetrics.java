@@ -0,0 +1,99 @@
+package ax.nd.faceunlock.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process-wide counters and latency summaries for the face pipeline. Cheap
+ * enough to update per frame; {@link #dump()} gives a one-line snapshot for logs.
+ */
+public class FaceMetrics {
+    private static final String TAG = "FaceMetrics";
+    private static FaceMetrics sInstance;
+
+    private final Map<String, long[]> mCounters = new TreeMap<>();
+    private final Map<String, Latency> mLatencies = new TreeMap<>();
+
+    private FaceMetrics() {
+    }
+
+    public static synchronized FaceMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new FaceMetrics();
+        }
+        return sInstance;
+    }
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    public synchronized void add(String name, long delta) {
+        long[] counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new long[1];
+            mCounters.put(name, counter);
+        }
+        counter[0] += delta;
+    }
+
+    public synchronized long get(String name) {
+        long[] counter = mCounters.get(name);
+        return counter != null ? counter[0] : 0;
+    }
+
+    public synchronized void recordLatency(String name, long ms) {
+        Latency latency = mLatencies.get(name);
+        if (latency == null) {
+            latency = new Latency();
+            mLatencies.put(name, latency);
+        }
+        latency.record(ms);
+    }
+
+    /** Number of samples recorded under {@code name}. */
+    public synchronized long getLatencyCount(String name) {
+        Latency latency = mLatencies.get(name);
+        return latency != null ? latency.mCount : 0;
+    }
+
+    public synchronized long getLatencyAverage(String name) {
+        Latency latency = mLatencies.get(name);
+        return latency != null && latency.mCount > 0 ? latency.mTotal / latency.mCount : 0;
+    }
+
+    public synchronized void reset() {
+        mCounters.clear();
+        mLatencies.clear();
+    }
+
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder(TAG).append('{');
+        for (Map.Entry<String, long[]> entry : mCounters.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()[0]).append(", ");
+        }
+        for (Map.Entry<String, Latency> entry : mLatencies.entrySet()) {
+            Latency l = entry.getValue();
+            sb.append(entry.getKey()).append("={n=").append(l.mCount)
+                    .append(" last=").append(l.mLast)
+                    .append(" avg=").append(l.mCount > 0 ? l.mTotal / l.mCount : 0)
+                    .append(" max=").append(l.mMax).append("}, ");
+        }
+        if (sb.charAt(sb.length() - 1) == ' ') sb.setLength(sb.length() - 2);
+        return sb.append('}').toString();
+    }
+
+    private static final class Latency {
+        long mCount;
+        long mTotal;
+        long mLast;
+        long mMax;
+
+        void record(long ms) {
+            mCount++;
+            mTotal += ms;
+            mLast = ms;
+            if (ms > mMax) mMax = ms;
+        }
+    }
+}
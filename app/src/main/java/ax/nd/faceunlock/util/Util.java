@@ -71,4 +71,15 @@ public class Util {
             e.printStackTrace();
         }
     }
+
+    public static String getSystemProperty(String key, String def) {
+        try {
+            Class<?> c = Class.forName("android.os.SystemProperties");
+            java.lang.reflect.Method get = c.getMethod("get", String.class, String.class);
+            return (String) get.invoke(null, key, def);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return def;
+        }
+    }
 }
\ No newline at end of file
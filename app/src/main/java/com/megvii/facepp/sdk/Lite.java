@@ -4,16 +4,15 @@ import android.annotation.TargetApi;
 import android.media.Image;
 import android.os.Environment;
 import android.os.StatFs;
-import android.util.Log;
 
 import com.megvii.facepp.sdk.jni.LiteApi;
-import java.nio.ByteBuffer;
 
 public class Lite {
     public static final int FEATURE_SIZE = 10000;
     public static final int IMAGE_SIZE = 40000;
     public static final int RESULT_SIZE = 20;
     private static Lite sInstance;
+    private static final NV21Converter sConverter = new NV21Converter();
     private long handle = 0;
     private final FeatureRestoreHelper mFeatureRestoreHelper = new FeatureRestoreHelper();
     private String mPath;
@@ -190,16 +189,8 @@ public class Lite {
     }
 
     public int prepare(MGULKPowerMode mGULKPowerMode) {
-        int i = mGULKPowerMode.ordinal();
-        int i2 = 0;
-        if (i != 1) {
-            if (i == 2) {
-                i2 = 1;
-            } else if (i == 3) {
-                i2 = 2;
-            }
-        }
-        return LiteApi.nativePrepareWithPower(handle, i2);
+        // NONE, LOW and HIGH are 0, 1 and 2 natively, in declaration order.
+        return LiteApi.nativePrepareWithPower(handle, mGULKPowerMode.ordinal());
     }
 
     public int prepare() {
@@ -246,90 +237,9 @@ public class Lite {
 
     @TargetApi(21)
     public static int image2NV21(Image image, byte[] bArr) {
-        int readImageIntoBuffer = readImageIntoBuffer(image, bArr);
-        if (readImageIntoBuffer == 1) {
-            return 1;
-        }
-        revertHalf(bArr);
-        return readImageIntoBuffer;
-    }
-
-    @TargetApi(21)
-    private static int readImageIntoBuffer(Image image, byte[] bArr) {
-        int i;
-        int i2;
-        if (image == null) {
-            Log.e("NULL Image", "image is null");
-            return 1;
-        }
-        int width = image.getWidth();
-        int height = image.getHeight();
-        Image.Plane[] planes = image.getPlanes();
-        int i3 = 0;
-        for (int i4 = 0; i4 < planes.length; i4++) {
-            ByteBuffer buffer = planes[i4].getBuffer();
-            int rowStride = planes[i4].getRowStride();
-            int pixelStride = planes[i4].getPixelStride();
-            if (i4 == 0) {
-                i = width;
-            } else {
-                i = width / 2;
-            }
-            if (i4 == 0) {
-                i2 = height;
-            } else {
-                i2 = height / 2;
-            }
-            if (pixelStride == 1 && rowStride == i) {
-                int i5 = i * i2;
-                buffer.get(bArr, i3, i5);
-                i3 += i5;
-            } else {
-                byte[] bArr2 = new byte[rowStride];
-                int i6 = i3;
-                int i7 = 0;
-                while (i7 < i2 - 1) {
-                    buffer.get(bArr2, 0, rowStride);
-                    int i8 = i6;
-                    int i9 = 0;
-                    while (i9 < i) {
-                        bArr[i8] = bArr2[i9 * pixelStride];
-                        i9++;
-                        i8++;
-                    }
-                    i7++;
-                    i6 = i8;
-                }
-                buffer.get(bArr2, 0, Math.min(rowStride, buffer.remaining()));
-                int i10 = 0;
-                while (i10 < i) {
-                    bArr[i6] = bArr2[i10 * pixelStride];
-                    i10++;
-                    i6++;
-                }
-                i3 = i6;
-            }
-        }
-        return 0;
-    }
-
-    private static void revertHalf(byte[] bArr) {
-        int length = bArr.length;
-        int i = length / 3;
-        byte[] bArr2 = new byte[i];
-        int i2 = length / 6;
-        int i3 = i2 * 4;
-        int i4 = i2 * 5;
-        int i5 = 0;
-        while (i5 < bArr2.length - 1) {
-            bArr2[i5] = bArr[i4];
-            bArr2[i5 + 1] = bArr[i3];
-            i5 += 2;
-            i4++;
-            i3++;
+        synchronized (sConverter) {
+            return sConverter.convert(image, bArr);
         }
-        int i6 = i * 2;
-        if (length - i6 >= 0) System.arraycopy(bArr2, 0, bArr, i6, length - i6);
     }
 
     public static class MGULKImage {
@@ -0,0 +1,268 @@
+package com.megvii.facepp.sdk;
+
+import android.media.Image;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable YUV_420_888 to NV21 converter. Keeps its scratch row between
+ * frames and copies whole rows (or whole planes) with bulk ByteBuffer reads
+ * whenever the plane layout allows it:
+ * <ul>
+ *   <li>luma with pixelStride 1 is copied row by row, or in one block when unpadded;</li>
+ *   <li>chroma that is already interleaved in VU order (pixelStride 2, U aliased
+ *       one byte after V) is copied as a block per row, or one block when unpadded;</li>
+ *   <li>interleaved UV (NV12 order) is block-copied and swapped in place.</li>
+ * </ul>
+ * Anything else goes through the general per-pixel path. Which chroma layout
+ * applies is worked out from where the plane buffers start, without touching
+ * their content, and kept for as long as the frame geometry stays the same.
+ * Instances are not thread-safe.
+ */
+public class NV21Converter {
+    private static final String TAG = "NV21Converter";
+    private static final int CHROMA_PLANAR = 0;
+    private static final int CHROMA_VU = 1;
+    private static final int CHROMA_UV = 2;
+    // Start of a direct buffer's memory, to tell whether two planes share it.
+    private static final Field sAddress = addressField();
+
+    private byte[] mScratch = new byte[0];
+    private long mFastFrames = 0;
+    private long mGeneralFrames = 0;
+    // Chroma layout of the last frame geometry; -1 until the first frame.
+    private int mChromaLayout = -1;
+    private int mLayoutWidth;
+    private int mLayoutHeight;
+    private int mLayoutURowStride;
+    private int mLayoutUPixelStride;
+    private int mLayoutVRowStride;
+    private int mLayoutVPixelStride;
+
+    public int convert(Image image, byte[] out) {
+        if (image == null) {
+            Log.e("NULL Image", "image is null");
+            return 1;
+        }
+        Image.Plane[] planes = image.getPlanes();
+        if (planes.length < 3) return 1;
+        return convert(image.getWidth(), image.getHeight(),
+                planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                out);
+    }
+
+    /**
+     * Converts three YUV_420_888 planes into {@code out}, which must hold at
+     * least width * height * 3 / 2 bytes. Buffer positions are left untouched.
+     * Returns 0 on success and 1 on failure, like {@link Lite#image2NV21}.
+     */
+    public int convert(int width, int height,
+                       ByteBuffer y, int yRowStride, int yPixelStride,
+                       ByteBuffer u, int uRowStride, int uPixelStride,
+                       ByteBuffer v, int vRowStride, int vPixelStride,
+                       byte[] out) {
+        int frameSize = width * height;
+        if (out == null || out.length < frameSize * 3 / 2) return 1;
+
+        boolean fast = copyLuma(y, width, height, yRowStride, yPixelStride, out);
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int layout = chromaLayout(width, height, u, uRowStride, uPixelStride, v, vRowStride, vPixelStride);
+        if (layout == CHROMA_VU) {
+            copyInterleavedChroma(v, u, width, chromaHeight, vRowStride, out, frameSize, false);
+        } else if (layout == CHROMA_UV) {
+            copyInterleavedChroma(u, v, width, chromaHeight, uRowStride, out, frameSize, true);
+        } else {
+            copyPlanarChroma(u, uRowStride, uPixelStride, v, vRowStride, vPixelStride,
+                    chromaWidth, chromaHeight, out, frameSize);
+            fast = false;
+        }
+        if (fast) {
+            mFastFrames++;
+        } else {
+            mGeneralFrames++;
+        }
+        return 0;
+    }
+
+    private boolean copyLuma(ByteBuffer y, int width, int height, int rowStride, int pixelStride, byte[] out) {
+        int base = y.position();
+        try {
+            if (pixelStride == 1 && rowStride == width) {
+                y.get(out, 0, width * height);
+                return true;
+            }
+            if (pixelStride == 1) {
+                for (int row = 0; row < height; row++) {
+                    y.position(base + row * rowStride);
+                    y.get(out, row * width, width);
+                }
+                return true;
+            }
+            int rowBytes = (width - 1) * pixelStride + 1;
+            byte[] scratch = scratch(rowBytes);
+            int dst = 0;
+            for (int row = 0; row < height; row++) {
+                y.position(base + row * rowStride);
+                y.get(scratch, 0, rowBytes);
+                for (int col = 0; col < width; col++) {
+                    out[dst++] = scratch[col * pixelStride];
+                }
+            }
+            return false;
+        } finally {
+            y.position(base);
+        }
+    }
+
+    private int chromaLayout(int width, int height,
+                             ByteBuffer u, int uRowStride, int uPixelStride,
+                             ByteBuffer v, int vRowStride, int vPixelStride) {
+        if (mChromaLayout >= 0 && width == mLayoutWidth && height == mLayoutHeight
+                && uRowStride == mLayoutURowStride && uPixelStride == mLayoutUPixelStride
+                && vRowStride == mLayoutVRowStride && vPixelStride == mLayoutVPixelStride) {
+            return mChromaLayout;
+        }
+        int layout = CHROMA_PLANAR;
+        if (uPixelStride == 2 && vPixelStride == 2 && uRowStride == vRowStride) {
+            if (isShiftedAlias(v, u)) {
+                layout = CHROMA_VU;
+            } else if (isShiftedAlias(u, v)) {
+                layout = CHROMA_UV;
+            }
+        }
+        mChromaLayout = layout;
+        mLayoutWidth = width;
+        mLayoutHeight = height;
+        mLayoutURowStride = uRowStride;
+        mLayoutUPixelStride = uPixelStride;
+        mLayoutVRowStride = vRowStride;
+        mLayoutVPixelStride = vPixelStride;
+        Log.d(TAG, "Chroma layout " + layout + " for " + width + "x" + height + ", row stride " + uRowStride);
+        return layout;
+    }
+
+    /**
+     * {@code first} starts one byte before {@code second} in the same memory,
+     * i.e. the planes are interleaved with {@code first} leading.
+     */
+    private static boolean isShiftedAlias(ByteBuffer first, ByteBuffer second) {
+        if (first.remaining() < 2 || second.remaining() < 1) return false;
+        if (first.hasArray() && second.hasArray()) {
+            return first.array() == second.array()
+                    && second.arrayOffset() + second.position() == first.arrayOffset() + first.position() + 1;
+        }
+        if (!first.isDirect() || !second.isDirect()) return false;
+        long start = address(first);
+        return start != 0 && address(second) == start + 1;
+    }
+
+    private static long address(ByteBuffer buffer) {
+        if (sAddress == null) return 0;
+        try {
+            return sAddress.getLong(buffer) + buffer.position();
+        } catch (IllegalAccessException e) {
+            return 0;
+        }
+    }
+
+    private static Field addressField() {
+        try {
+            Field field = Buffer.class.getDeclaredField("address");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.w(TAG, "Buffer addresses unavailable, interleaved chroma uses the general path", e);
+            return null;
+        }
+    }
+
+    /**
+     * Copies interleaved chroma rows. {@code lead} holds width - 1 bytes per row
+     * starting with its own component; the final byte of each row comes from
+     * {@code trail}. With {@code swap} the rows are in UV order and are swapped
+     * to VU afterwards.
+     */
+    private static void copyInterleavedChroma(ByteBuffer lead, ByteBuffer trail, int width, int chromaHeight,
+                                              int rowStride, byte[] out, int offset, boolean swap) {
+        int leadBase = lead.position();
+        int trailBase = trail.position();
+        try {
+            if (rowStride == width) {
+                int length = width * chromaHeight;
+                lead.get(out, offset, length - 1);
+                out[offset + length - 1] = trail.get(trailBase + length - 2);
+            } else {
+                for (int row = 0; row < chromaHeight; row++) {
+                    int dst = offset + row * width;
+                    lead.position(leadBase + row * rowStride);
+                    lead.get(out, dst, width - 1);
+                    out[dst + width - 1] = trail.get(trailBase + row * rowStride + width - 2);
+                }
+            }
+        } finally {
+            lead.position(leadBase);
+        }
+        if (swap) {
+            int end = offset + width * chromaHeight;
+            for (int i = offset; i < end; i += 2) {
+                byte tmp = out[i];
+                out[i] = out[i + 1];
+                out[i + 1] = tmp;
+            }
+        }
+    }
+
+    private void copyPlanarChroma(ByteBuffer u, int uRowStride, int uPixelStride,
+                                  ByteBuffer v, int vRowStride, int vPixelStride,
+                                  int chromaWidth, int chromaHeight, byte[] out, int offset) {
+        copyChromaPlane(v, vRowStride, vPixelStride, chromaWidth, chromaHeight, out, offset);
+        copyChromaPlane(u, uRowStride, uPixelStride, chromaWidth, chromaHeight, out, offset + 1);
+    }
+
+    private void copyChromaPlane(ByteBuffer plane, int rowStride, int pixelStride,
+                                 int chromaWidth, int chromaHeight, byte[] out, int offset) {
+        int base = plane.position();
+        int rowBytes = (chromaWidth - 1) * pixelStride + 1;
+        byte[] scratch = scratch(rowBytes);
+        int dst = offset;
+        try {
+            for (int row = 0; row < chromaHeight; row++) {
+                plane.position(base + row * rowStride);
+                plane.get(scratch, 0, rowBytes);
+                for (int col = 0; col < chromaWidth; col++) {
+                    out[dst] = scratch[col * pixelStride];
+                    dst += 2;
+                }
+            }
+        } finally {
+            plane.position(base);
+        }
+    }
+
+    private byte[] scratch(int size) {
+        if (mScratch.length < size) {
+            mScratch = new byte[size];
+        }
+        return mScratch;
+    }
+
+    public long getFastPathFrames() {
+        return mFastFrames;
+    }
+
+    public long getGeneralPathFrames() {
+        return mGeneralFrames;
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{fast=" + mFastFrames + ", general=" + mGeneralFrames + "}";
+    }
+}
@@ -0,0 +1,79 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraCapabilitiesTest {
+    private static final String KEY = CameraCapabilities.key("camera1", 1);
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("camera_caps", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void authSizePrefersExactThenNearestArea() {
+        CameraCapabilities caps = capabilities(sizes(1280, 720, 640, 480, 320, 240));
+        assertArrayEquals(new int[] {640, 480}, caps.getAuthSize(640, 480));
+        assertArrayEquals(new int[] {320, 240}, caps.getAuthSize(352, 288));
+    }
+
+    @Test
+    public void enrollSizePrefersLargestSquare() {
+        assertArrayEquals(new int[] {960, 960},
+                capabilities(sizes(640, 480, 480, 480, 1280, 720, 960, 960)).getEnrollSize());
+        assertArrayEquals(new int[] {640, 480},
+                capabilities(sizes(1280, 720, 400, 400, 640, 480)).getEnrollSize());
+        assertArrayEquals(new int[] {1280, 720},
+                capabilities(sizes(320, 240, 1280, 720)).getEnrollSize());
+    }
+
+    @Test
+    public void cacheRoundTripsThroughFile() {
+        CameraCapabilities caps = capabilities(sizes(640, 480, 960, 960));
+        caps.getAuthSize(640, 480);
+        new CameraCapabilityCache(mFile, "build/1").put(caps);
+
+        CameraCapabilities loaded = new CameraCapabilityCache(mFile, "build/1").get(KEY);
+        assertNotNull(loaded);
+        assertEquals(1, loaded.getFacing());
+        assertEquals(270, loaded.getOrientation());
+        assertEquals(Arrays.asList(17, 842094169), loaded.getPreviewFormats());
+        assertArrayEquals(new int[] {15000, 30000}, loaded.getFpsRanges().get(0));
+        assertArrayEquals(new int[] {960, 960}, loaded.getPreviewSizes().get(0));
+        assertArrayEquals(new int[] {640, 480}, loaded.getAuthSize(640, 480));
+        assertArrayEquals(new int[] {960, 960}, loaded.getEnrollSize());
+    }
+
+    @Test
+    public void cacheIsDroppedOnFingerprintChange() {
+        new CameraCapabilityCache(mFile, "build/1").put(capabilities(sizes(640, 480)));
+        assertNull(new CameraCapabilityCache(mFile, "build/2").get(KEY));
+    }
+
+    private static CameraCapabilities capabilities(List<int[]> sizes) {
+        return new CameraCapabilities(KEY, 1, 270, sizes, Arrays.asList(17, 842094169),
+                Arrays.asList(new int[] {15000, 30000}, new int[] {30000, 30000}));
+    }
+
+    private static List<int[]> sizes(int... dims) {
+        int[][] sizes = new int[dims.length / 2][];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = new int[] {dims[2 * i], dims[2 * i + 1]};
+        return Arrays.asList(sizes);
+    }
+}
@@ -0,0 +1,210 @@
+package ax.nd.faceunlock.camera;
+
+import ax.nd.faceunlock.camera.capture.CaptureBackend;
+import ax.nd.faceunlock.camera.capture.FakeCaptureBackend;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.util.FaceMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CameraStateMachineTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int CHURN_CYCLES = 40;
+
+    private ExecutorService mServiceThread;
+    private FakeCaptureBackend mFake;
+    private volatile CaptureBackend mBackend;
+    private CameraStateMachine mStates;
+
+    @Before
+    public void setUp() {
+        FaceMetrics.getInstance().reset();
+        mServiceThread = Executors.newSingleThreadExecutor();
+        mFake = new FakeCaptureBackend(WIDTH, HEIGHT, 2,
+                Collections.singletonList(new byte[WIDTH * HEIGHT * 3 / 2]));
+        mBackend = mFake;
+        mStates = new CameraStateMachine(mServiceThread, Runnable::run, () -> mBackend);
+    }
+
+    @After
+    public void tearDown() {
+        mServiceThread.shutdownNow();
+        mFake.shutdown();
+    }
+
+    @Test
+    public void openCloseOpenCollapsesToSingleOpen() throws Exception {
+        CountDownLatch hold = blockServiceThread();
+        CountDownLatch opened = new CountDownLatch(1);
+        AtomicInteger staleOpens = new AtomicInteger();
+        CountDownLatch firstClosed = new CountDownLatch(1);
+
+        int first = mStates.newSession();
+        mStates.open(first, 1, null, listener(staleOpens::incrementAndGet, null));
+        mStates.close(first, listener(firstClosed::countDown, null));
+        int second = mStates.newSession();
+        mStates.open(second, 1, null, listener(opened::countDown, null));
+        hold.countDown();
+
+        assertTrue(opened.await(1, TimeUnit.SECONDS));
+        assertTrue(firstClosed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, mFake.getOpenCount());
+        assertEquals(0, staleOpens.get());
+        assertEquals(second, mStates.getActiveSession());
+        assertEquals(CameraStateMachine.State.OPEN, mStates.getState());
+    }
+
+    @Test
+    public void closeBeforeNewerOpenIsCoalesced() throws Exception {
+        int first = openAndWait();
+        CountDownLatch hold = blockServiceThread();
+        CountDownLatch closed = new CountDownLatch(1);
+        CountDownLatch opened = new CountDownLatch(1);
+        mStates.close(first, listener(closed::countDown, null));
+        int second = mStates.newSession();
+        mStates.open(second, 1, null, listener(opened::countDown, null));
+        hold.countDown();
+
+        assertTrue(opened.await(1, TimeUnit.SECONDS));
+        assertTrue(closed.await(1, TimeUnit.SECONDS));
+        assertEquals(2, mFake.getOpenCount());
+        assertEquals(1, FaceMetrics.getInstance().get("camera.cmd.coalesced"));
+    }
+
+    @Test
+    public void staleSessionCommandsAndFramesAreDropped() throws Exception {
+        int first = openAndWait();
+        AtomicInteger staleFrames = new AtomicInteger();
+        submitAndWait(first, CameraStateMachine.Command.SET_PREVIEW_CALLBACK, (backend, l) ->
+                backend.setPreviewCallback(mStates.trackFrames(first, (i, v) -> staleFrames.incrementAndGet()), false, l));
+        submitAndWait(first, CameraStateMachine.Command.START_PREVIEW, (backend, l) -> backend.startPreview((android.graphics.SurfaceTexture) null, l));
+        assertEquals(CameraStateMachine.State.PREVIEWING, mStates.getState());
+
+        int second = openAndWait();
+        // A frame that passed the session check just before the handoff may still be counting.
+        Thread.sleep(30);
+        int framesAtHandoff = staleFrames.get();
+        AtomicReference<Boolean> ran = new AtomicReference<>(false);
+        mStates.submit(first, CameraStateMachine.Command.STOP_PREVIEW, null, (backend, l) -> ran.set(true));
+        drain();
+        Thread.sleep(30);
+
+        assertFalse(ran.get());
+        assertEquals(framesAtHandoff, staleFrames.get());
+        assertEquals(second, mStates.getActiveSession());
+        assertTrue(FaceMetrics.getInstance().get("camera.cmd.stale") >= 1);
+    }
+
+    @Test
+    public void commandsAreRejectedWhileOpening() throws Exception {
+        AtomicReference<CameraListener> pendingOpen = new AtomicReference<>();
+        mBackend = new FakeCaptureBackend(WIDTH, HEIGHT, 2, Collections.emptyList()) {
+            @Override
+            public void open(int cameraId, ErrorCallbackListener errors, CameraListener cameraListener) {
+                pendingOpen.set(cameraListener);
+            }
+        };
+        int session = mStates.newSession();
+        mStates.open(session, 1, null, null);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        mStates.submit(session, CameraStateMachine.Command.START_PREVIEW, listener(null, error::set),
+                (backend, l) -> fail("must not reach the backend"));
+        drain();
+
+        assertEquals(CameraStateMachine.State.OPENING, mStates.getState());
+        assertTrue(error.get() instanceof IllegalStateException);
+        assertEquals(1, FaceMetrics.getInstance().get("camera.cmd.rejected"));
+        ((FakeCaptureBackend) mBackend).shutdown();
+    }
+
+    /**
+     * Rapid open/preview/close cycling; reports open-to-first-frame latency.
+     * Every other cycle closes without waiting so the close coalesces with the
+     * next open.
+     */
+    @Test
+    public void churnOpenToFirstFrame() throws Exception {
+        long start = System.nanoTime();
+        for (int cycle = 0; cycle < CHURN_CYCLES; cycle++) {
+            int session = mStates.newSession();
+            CountDownLatch firstFrame = new CountDownLatch(1);
+            mStates.open(session, 1, null, null);
+            mStates.submit(session, CameraStateMachine.Command.SET_PREVIEW_CALLBACK, null, (backend, l) ->
+                    backend.setPreviewCallback(mStates.trackFrames(session, (i, v) -> firstFrame.countDown()), false, l));
+            mStates.submit(session, CameraStateMachine.Command.START_PREVIEW, null,
+                    (backend, l) -> backend.startPreview((android.graphics.SurfaceTexture) null, l));
+            assertTrue("no frame in cycle " + cycle, firstFrame.await(1, TimeUnit.SECONDS));
+            if (cycle % 2 == 0) {
+                CountDownLatch closed = new CountDownLatch(1);
+                mStates.close(session, listener(closed::countDown, null));
+                assertTrue(closed.await(1, TimeUnit.SECONDS));
+            } else {
+                mStates.close(session, null);
+            }
+        }
+        long totalMs = (System.nanoTime() - start) / 1000000;
+        FaceMetrics metrics = FaceMetrics.getInstance();
+        System.out.println("churn: " + CHURN_CYCLES + " cycles in " + totalMs + " ms, "
+                + metrics.dump());
+        assertEquals(CHURN_CYCLES, metrics.getLatencyCount("camera.open_to_first_frame_ms"));
+        assertEquals(CHURN_CYCLES, mFake.getOpenCount());
+        assertEquals(0, metrics.get("camera.cmd.rejected"));
+    }
+
+    private int openAndWait() throws Exception {
+        int session = mStates.newSession();
+        CountDownLatch opened = new CountDownLatch(1);
+        mStates.open(session, 1, null, listener(opened::countDown, null));
+        assertTrue(opened.await(1, TimeUnit.SECONDS));
+        return session;
+    }
+
+    private void submitAndWait(int session, CameraStateMachine.Command command, CameraStateMachine.BackendCall call)
+            throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        mStates.submit(session, command, listener(done::countDown, null), call);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    private CountDownLatch blockServiceThread() {
+        CountDownLatch hold = new CountDownLatch(1);
+        mServiceThread.execute(() -> {
+            try {
+                hold.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        return hold;
+    }
+
+    private void drain() throws Exception {
+        mServiceThread.submit(() -> { }).get(1, TimeUnit.SECONDS);
+    }
+
+    private static CameraListener listener(Runnable onComplete, java.util.function.Consumer<Exception> onError) {
+        return new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                if (onComplete != null) onComplete.run();
+            }
+            @Override
+            public void onError(Exception e) {
+                if (onError != null) onError.accept(e);
+            }
+        };
+    }
+}
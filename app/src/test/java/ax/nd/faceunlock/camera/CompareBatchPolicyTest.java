@@ -0,0 +1,54 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompareBatchPolicyTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void growsWhileBatchingIsCheaper() {
+        CompareBatchPolicy policy = new CompareBatchPolicy(4);
+        // Fixed 30 ms per call plus 10 ms per frame: larger batches always win.
+        run(policy, 40, frames -> (30 + 10 * frames) * MS);
+        assertEquals(4, policy.getWindow());
+    }
+
+    @Test
+    public void fallsBackToPerFrameWhenBatchingIsSlower() {
+        CompareBatchPolicy policy = new CompareBatchPolicy(4);
+        // A batch costs more per frame than a single call.
+        run(policy, 40, frames -> frames == 1 ? 40 * MS : 50 * MS * frames);
+        assertEquals(1, policy.getWindow());
+    }
+
+    @Test
+    public void stopsProbingAtTheCheapestWindow() {
+        CompareBatchPolicy policy = new CompareBatchPolicy(4);
+        long[] perFrameMs = {0, 40, 20, 30, 30};
+        run(policy, 60, frames -> perFrameMs[frames] * frames * MS);
+        assertEquals(2, policy.getWindow());
+    }
+
+    @Test
+    public void disableForcesPerFrame() {
+        CompareBatchPolicy policy = new CompareBatchPolicy(3);
+        run(policy, 40, frames -> (30 + 10 * frames) * MS);
+        assertTrue(policy.getWindow() > 1);
+        policy.disable();
+        assertEquals(1, policy.getWindow());
+        assertEquals(1, policy.getMaxWindow());
+    }
+
+    private interface Cost {
+        long nanos(int frames);
+    }
+
+    private static void run(CompareBatchPolicy policy, int cycles, Cost cost) {
+        for (int i = 0; i < cycles; i++) {
+            int window = policy.getWindow();
+            policy.onCycle(window, cost.nanos(window));
+        }
+    }
+}
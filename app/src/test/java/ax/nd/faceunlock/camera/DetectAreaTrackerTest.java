@@ -0,0 +1,83 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DetectAreaTrackerTest {
+    private static final long MS = 1000000L;
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void startsAtFullFrame() {
+        DetectAreaTracker tracker = new DetectAreaTracker(WIDTH, HEIGHT);
+        assertArrayEquals(new int[] {0, 0, WIDTH, HEIGHT}, tracker.update(0));
+        assertNull(tracker.update(33 * MS));
+        assertFalse(tracker.isReduced());
+    }
+
+    @Test
+    public void fallsBackToFullFrameAfterMisses() {
+        DetectAreaTracker tracker = new DetectAreaTracker(WIDTH, HEIGHT);
+        tracker.onFace(0.4f, 0.4f, 0.6f, 0.6f, 0);
+        int[] area = tracker.update(0);
+        assertTrue(tracker.isReduced());
+        assertTrue(area[0] > 0 && area[2] < WIDTH);
+        for (int i = 0; i < DetectAreaTracker.MAX_MISSES; i++) tracker.onNoFace();
+        assertArrayEquals(new int[] {0, 0, WIDTH, HEIGHT}, tracker.update(33 * MS));
+        assertFalse(tracker.isReduced());
+
+        tracker.onFace(0.4f, 0.4f, 0.6f, 0.6f, 100 * MS);
+        assertNotNull(tracker.update(100 * MS));
+        // No report for longer than STALE_MS.
+        assertArrayEquals(new int[] {0, 0, WIDTH, HEIGHT},
+                tracker.update((100 + DetectAreaTracker.STALE_MS + 1) * MS));
+    }
+
+    @Test
+    public void engineAreaOfFullFrameMatchesBridge() {
+        int[] full = {0, 0, WIDTH, HEIGHT};
+        // The bridge hands the engine (0, 0, height, width) for the whole frame.
+        assertArrayEquals(new int[] {0, 0, HEIGHT, WIDTH}, DetectAreaTracker.toEngineArea(full, WIDTH, HEIGHT, 270));
+        assertArrayEquals(new int[] {0, 0, HEIGHT, WIDTH}, DetectAreaTracker.toEngineArea(full, WIDTH, HEIGHT, 90));
+    }
+
+    /**
+     * Simulated engine whose detection cost is proportional to the scanned
+     * area, fed a jittery face track with dropouts. Prints how often the area
+     * moves and how much of the frame is scanned on average.
+     */
+    @Test
+    public void jitteryTrackKeepsAreaStable() {
+        DetectAreaTracker tracker = new DetectAreaTracker(WIDTH, HEIGHT);
+        Random random = new Random(42);
+        long fullCostNanos = 0;
+        long roiCostNanos = 0;
+        double fraction = 1;
+        for (int frame = 0; frame < 600; frame++) {
+            long now = frame * 33 * MS;
+            if (frame % 100 >= 90) {
+                tracker.onNoFace();
+            } else {
+                float cx = 0.5f + 0.1f * (float) Math.sin(frame / 60.0) + 0.01f * (float) random.nextGaussian();
+                float cy = 0.45f + 0.01f * (float) random.nextGaussian();
+                tracker.onFace(cx - 0.12f, cy - 0.15f, cx + 0.12f, cy + 0.15f, now);
+            }
+            int[] area = tracker.update(now);
+            if (area != null) fraction = (double) (area[2] - area[0]) * (area[3] - area[1]) / (WIDTH * HEIGHT);
+            fullCostNanos += 20 * MS;
+            roiCostNanos += (long) (20 * MS * fraction);
+        }
+        double stability = (double) tracker.getUpdateCount() / tracker.getFrameCount();
+        double reduced = (double) tracker.getReducedFrameCount() / tracker.getFrameCount();
+        System.out.println(tracker.dump() + " updates/frame=" + stability + " reducedFrames=" + reduced
+                + " detectMs full=" + fullCostNanos / MS + " roi=" + roiCostNanos / MS);
+        assertTrue(stability < 0.2);
+        assertTrue(reduced > 0.8);
+        assertTrue(tracker.getAverageAreaFraction() < 0.5);
+        assertTrue(roiCostNanos < fullCostNanos / 2);
+    }
+}
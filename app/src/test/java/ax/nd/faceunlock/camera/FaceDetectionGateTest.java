@@ -0,0 +1,43 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceDetectionGateTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void blocksUntilAConfidentFace() {
+        FaceDetectionGate gate = new FaceDetectionGate(0);
+        gate.onFaceDetection(0, 0, 10 * MS);
+        assertFalse(gate.allow(20 * MS));
+        gate.onFaceDetection(1, FaceDetectionGate.MIN_SCORE - 1, 30 * MS);
+        assertFalse(gate.allow(40 * MS));
+        gate.onFaceDetection(1, 90, 50 * MS);
+        assertTrue(gate.allow(60 * MS));
+        assertEquals(2, gate.getBlockedCount());
+        assertEquals(1, gate.getPassedCount());
+    }
+
+    @Test
+    public void holdsOpenBrieflyAfterTheFaceIsLost() {
+        FaceDetectionGate gate = new FaceDetectionGate(0);
+        gate.onFaceDetection(1, 90, 100 * MS);
+        // Only-on-change HALs: no reports while the face stays.
+        assertTrue(gate.allow(2000 * MS));
+        gate.onFaceDetection(0, 0, 2100 * MS);
+        assertTrue(gate.allow(2100 * MS + FaceDetectionGate.HOLD_MS * MS));
+        assertFalse(gate.allow(2101 * MS + FaceDetectionGate.HOLD_MS * MS));
+    }
+
+    @Test
+    public void failsOpenWithoutReports() {
+        FaceDetectionGate gate = new FaceDetectionGate(0);
+        assertFalse(gate.allow(100 * MS));
+        assertTrue(gate.allow((FaceDetectionGate.GRACE_MS + 1) * MS));
+        assertTrue(gate.isDisabled());
+        gate.onFaceDetection(0, 0, 2000 * MS);
+        assertTrue(gate.allow(2000 * MS));
+    }
+}
@@ -0,0 +1,60 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FacePipelineTest {
+    @Test
+    public void cancelledTokenDropsQueuedWork() {
+        FacePipeline.Token token = new FacePipeline.Token();
+        AtomicInteger runs = new AtomicInteger();
+        Runnable task = token.wrap(runs::incrementAndGet);
+        task.run();
+        token.cancel();
+        task.run();
+        assertEquals(1, runs.get());
+        assertTrue(token.isCancelled());
+    }
+
+    /** Sessions reuse the same compare threads; a larger session only adds the missing ones. */
+    @Test
+    public void compareThreadsOutliveSessions() throws InterruptedException {
+        FacePipeline pipeline = new FacePipeline();
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        for (int session = 0; session < 5; session++) {
+            runSession(pipeline.getCompareExecutor(2), 2, names);
+        }
+        assertEquals(2, names.size());
+        runSession(pipeline.getCompareExecutor(3), 3, names);
+        assertEquals(3, names.size());
+        assertSame(pipeline.getCompareExecutor(1), pipeline.getCompareExecutor(3));
+    }
+
+    private static void runSession(ExecutorService executor, int workers, Set<String> names)
+            throws InterruptedException {
+        // Every worker holds its task until all have started, so each runs on its own thread.
+        CountDownLatch started = new CountDownLatch(workers);
+        CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                names.add(Thread.currentThread().getName());
+                started.countDown();
+                try {
+                    started.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+}
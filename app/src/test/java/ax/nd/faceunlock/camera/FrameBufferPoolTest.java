@@ -0,0 +1,82 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameBufferPoolTest {
+    private static final int FRAME = 640 * 480 * 3 / 2;
+
+    @Test
+    public void buffersOutliveSessions() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Session first = pool.openSession("first");
+        byte[] a = first.acquire(FRAME);
+        byte[] b = first.acquire(FRAME);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(2, pool.getInFlightCount());
+        first.close();
+        assertEquals(0, pool.getInFlightCount());
+        assertEquals(2L * FRAME, pool.getBytesRetained());
+
+        FrameBufferPool.Session second = pool.openSession("second");
+        byte[] c = second.acquire(FRAME);
+        assertTrue(c == a || c == b);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(FRAME, pool.getBytesRetained());
+        // Another size is a miss even with idle buffers.
+        second.acquire(FRAME / 2);
+        assertEquals(3, pool.getMissCount());
+        second.close();
+    }
+
+    @Test
+    public void checkedOutBuffersReturnOnceTheWorkerIsDone() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Session session = pool.openSession("auth");
+        byte[] frame = session.acquire(FRAME);
+        session.checkOut(frame);
+        // Session still open: the buffer goes back to the camera.
+        assertTrue(session.checkIn(frame));
+        session.checkOut(frame);
+        session.close();
+        assertTrue(session.isClosed());
+        assertEquals(1, pool.getLeakedCount());
+        assertEquals(0, pool.getBytesRetained());
+        assertFalse(session.checkIn(frame));
+        assertEquals(0, pool.getLeakedCount());
+        assertEquals(FRAME, pool.getBytesRetained());
+    }
+
+    @Test
+    public void leaksAreTrackedUntilRecycled() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Session session = pool.openSession("enroll");
+        byte[] frame = session.acquire(FRAME);
+        session.checkOut(frame);
+        session.close();
+        assertEquals(1, pool.getLeakedCount());
+        session.recycle(frame);
+        assertEquals(0, pool.getLeakedCount());
+        // Recycling twice or a foreign buffer changes nothing.
+        session.recycle(frame);
+        session.recycle(new byte[FRAME]);
+        assertEquals(FRAME, pool.getBytesRetained());
+    }
+
+    @Test
+    public void retainedBytesAreBounded() {
+        FrameBufferPool pool = new FrameBufferPool();
+        pool.setMaxRetainedBytes(2L * FRAME);
+        FrameBufferPool.Session session = pool.openSession("auth");
+        for (int i = 0; i < 3; i++) session.acquire(FRAME);
+        session.close();
+        assertEquals(2L * FRAME, pool.getBytesRetained());
+        pool.setMaxRetainedBytes(FRAME);
+        assertEquals(FRAME, pool.getBytesRetained());
+        pool.trim();
+        assertEquals(0, pool.getBytesRetained());
+        assertTrue(pool.dump().contains("discarded=2"));
+    }
+}
@@ -0,0 +1,78 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameMailboxTest {
+    private final List<byte[]> mDropped = new ArrayList<>();
+
+    private static byte[] frame(int index) {
+        return new byte[] {(byte) index};
+    }
+
+    @Test
+    public void fullMailboxDropsOldest() {
+        FrameMailbox mailbox = new FrameMailbox(2, 0, mDropped::add);
+        byte[] first = frame(1);
+        assertTrue(mailbox.offer(first));
+        assertFalse(mailbox.offer(frame(2)));
+        mailbox.offer(frame(3));
+        assertEquals(1, mDropped.size());
+        assertSame(first, mDropped.get(0));
+        assertEquals(3, mailbox.getOfferedCount());
+        assertEquals(1, mailbox.getDroppedCount());
+    }
+
+    @Test
+    public void takeReturnsNewestAndDropsTheRest() {
+        FrameMailbox mailbox = new FrameMailbox(3, 0, mDropped::add);
+        byte[] a = frame(1);
+        byte[] b = frame(2);
+        byte[] c = frame(3);
+        mailbox.offer(a);
+        mailbox.offer(b);
+        mailbox.offer(c);
+        assertSame(c, mailbox.take());
+        assertNull(mailbox.take());
+        assertEquals(2, mDropped.size());
+        assertSame(a, mDropped.get(0));
+        assertSame(b, mDropped.get(1));
+        assertEquals(1, mailbox.getProcessedCount());
+        assertEquals(2, mailbox.getDroppedCount());
+        // Empty again: the next offer wakes the consumer.
+        assertTrue(mailbox.offer(frame(4)));
+    }
+
+    @Test
+    public void framesPastTheAgeCutoffAreDropped() throws InterruptedException {
+        FrameMailbox mailbox = new FrameMailbox(2, 20, mDropped::add);
+        byte[] stale = frame(1);
+        mailbox.offer(stale);
+        Thread.sleep(40);
+        assertNull(mailbox.take());
+        assertEquals(1, mDropped.size());
+        assertSame(stale, mDropped.get(0));
+        assertEquals(0, mailbox.getProcessedCount());
+
+        byte[] fresh = frame(2);
+        mailbox.offer(fresh);
+        assertSame(fresh, mailbox.take());
+        assertEquals(1, mailbox.getProcessedCount());
+        assertEquals(1, mailbox.getDroppedCount());
+        assertTrue(mailbox.getMaxFrameAgeMs() < 20);
+    }
+
+    @Test
+    public void clearReturnsEveryQueuedFrame() {
+        FrameMailbox mailbox = new FrameMailbox(4, 0, mDropped::add);
+        for (int i = 0; i < 3; i++) mailbox.offer(frame(i));
+        mailbox.clear();
+        assertEquals(3, mDropped.size());
+        assertNull(mailbox.take());
+        assertTrue(mailbox.dump().contains("offered=3"));
+    }
+}
@@ -0,0 +1,74 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameQualityFilterTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void rejectsDarkBrightAndBlurredFrames() {
+        FrameQualityFilter filter = new FrameQualityFilter(new FrameQualityFilter.Thresholds());
+        assertEquals(FrameQualityFilter.PASS, filter.check(textured(0, 120), WIDTH, HEIGHT));
+        assertEquals(FrameQualityFilter.DARK, filter.check(flat(8), WIDTH, HEIGHT));
+        assertEquals(FrameQualityFilter.BRIGHT, filter.check(flat(255), WIDTH, HEIGHT));
+        assertEquals(FrameQualityFilter.BLUR, filter.check(flat(120), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void rejectsMotionAgainstPreviousFrame() {
+        FrameQualityFilter filter = new FrameQualityFilter(new FrameQualityFilter.Thresholds());
+        assertEquals(FrameQualityFilter.PASS, filter.check(textured(0, 120), WIDTH, HEIGHT));
+        assertEquals(FrameQualityFilter.PASS, filter.check(textured(0, 120), WIDTH, HEIGHT));
+        assertEquals(FrameQualityFilter.MOTION, filter.check(textured(7, 120), WIDTH, HEIGHT));
+        // Exposure change without movement.
+        assertEquals(FrameQualityFilter.PASS, filter.check(textured(7, 160), WIDTH, HEIGHT));
+        filter.reset();
+        assertEquals(FrameQualityFilter.PASS, filter.check(textured(0, 120), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void parsesThresholds() {
+        FrameQualityFilter.Thresholds t = FrameQualityFilter.Thresholds.parse("40, x,0");
+        assertEquals(40, t.mMinLuma);
+        assertEquals(new FrameQualityFilter.Thresholds().mMaxBrightPercent, t.mMaxBrightPercent);
+        assertEquals(0, t.mMinSharpness);
+        // A zero threshold turns the stage off.
+        assertEquals(FrameQualityFilter.PASS, new FrameQualityFilter(t).check(flat(120), WIDTH, HEIGHT));
+    }
+
+    /** Rough per-stage cost on synthetic frames, for comparison with a native compare. */
+    @Test
+    public void benchmark() {
+        FrameQualityFilter filter = new FrameQualityFilter(new FrameQualityFilter.Thresholds());
+        byte[][] frames = {textured(0, 120), textured(1, 110), textured(0, 130), flat(10)};
+        for (int i = 0; i < 2000; i++) filter.check(frames[i % frames.length], WIDTH, HEIGHT);
+        System.out.println(filter.dump());
+        assertEquals(500, filter.getRejectedCount(FrameQualityFilter.DARK));
+    }
+
+    private static byte[] flat(int luma) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(frame, 0, WIDTH * HEIGHT, (byte) luma);
+        Arrays.fill(frame, WIDTH * HEIGHT, frame.length, (byte) 128);
+        return frame;
+    }
+
+    /** Blocky pattern with pixel noise, shifted right by {@code shift} pixels. */
+    private static byte[] textured(int shift, int luma) {
+        byte[] frame = flat(luma);
+        Random random = new Random(7);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int block = (((x + shift) / 8) + (y / 8)) % 2 == 0 ? 60 : -60;
+                frame[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, luma + block + random.nextInt(21) - 10));
+            }
+        }
+        return frame;
+    }
+}
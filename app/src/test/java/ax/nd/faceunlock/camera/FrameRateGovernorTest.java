@@ -0,0 +1,60 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameRateGovernorTest {
+    private static final long MS = 1000000L;
+    private static final List<int[]> CAMERA1_RANGES = Arrays.asList(
+            new int[] {7000, 15000}, new int[] {15000, 15000}, new int[] {10000, 24000}, new int[] {30000, 30000});
+
+    @Test
+    public void picksLowestRangeCoveringCompareRate() {
+        FrameRateGovernor governor = new FrameRateGovernor(CAMERA1_RANGES);
+        // 100 ms per compare -> 10 fps, 12.5 with headroom.
+        int[] range = feed(governor, 100 * MS, 2 * FrameRateGovernor.EVALUATE_EVERY);
+        assertArrayEquals(new int[] {7000, 15000}, range);
+        assertArrayEquals(new int[] {7000, 15000}, governor.getCurrentRange());
+    }
+
+    @Test
+    public void followsThermalSlowdownAndRecovery() {
+        FrameRateGovernor governor = new FrameRateGovernor(CAMERA1_RANGES);
+        feed(governor, 30 * MS, 4 * FrameRateGovernor.EVALUATE_EVERY);
+        assertArrayEquals(new int[] {30000, 30000}, governor.getCurrentRange());
+        // Throttled: the window slides and the rate comes down.
+        feed(governor, 90 * MS, 4 * FrameRateGovernor.EVALUATE_EVERY);
+        assertArrayEquals(new int[] {7000, 15000}, governor.getCurrentRange());
+        feed(governor, 60 * MS, 4 * FrameRateGovernor.EVALUATE_EVERY);
+        assertArrayEquals(new int[] {10000, 24000}, governor.getCurrentRange());
+    }
+
+    @Test
+    public void skipsFramesFasterThanCompare() {
+        FrameRateGovernor governor = new FrameRateGovernor(null);
+        feed(governor, 100 * MS, 2 * FrameRateGovernor.EVALUATE_EVERY);
+        assertNull(governor.getCurrentRange());
+        long now = 0;
+        int accepted = 0;
+        for (int i = 0; i < 30; i++, now += 33 * MS) {
+            if (governor.onFrameCaptured(now)) accepted++;
+        }
+        // ~1 s of 30 fps preview against a 100 ms compare.
+        assertTrue("accepted " + accepted, accepted >= 8 && accepted <= 11);
+        assertEquals(30 - accepted, governor.getSkippedCount());
+        assertEquals(30, governor.getCapturedCount());
+    }
+
+    private static int[] feed(FrameRateGovernor governor, long latency, int compares) {
+        int[] last = null;
+        for (int i = 0; i < compares; i++) {
+            int[] range = governor.onCompare(1, latency);
+            if (range != null) last = range;
+        }
+        return last;
+    }
+}
@@ -0,0 +1,167 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NV21ResamplerTest {
+    /** Source sizes the enroll controller accepts, with the frame it hands to the engine. */
+    private static final int[][] SIZES = {
+            {640, 480, 640, 480},     // VGA
+            {1280, 720, 640, 480},    // 720p
+            {1920, 1080, 640, 480},   // 1080p
+            {720, 720, 640, 480},     // square under 800
+            {800, 800, 400, 400},     // square of 800 and up
+            {1600, 1600, 800, 800},
+    };
+
+    /**
+     * Frames are constant over every 2x2 block, where the box filter and the
+     * old point sampler agree, so any difference is framing.
+     */
+    @Test
+    public void keepsTheOldEnrollFraming() {
+        NV21Resampler resampler = new NV21Resampler(1);
+        for (int[] size : SIZES) {
+            byte[] src = blocky(size[0], size[1], new Random(size[0]));
+            byte[] expected = legacy(src, size[0], size[1], size[2], size[3]);
+            byte[] actual = new byte[expected.length];
+            resampler.resampleCentered(src, size[0], size[1], actual, size[2], size[3]);
+            assertArrayEquals(size[0] + "x" + size[1], expected, actual);
+        }
+        resampler.shutdown();
+    }
+
+    @Test
+    public void parallelBandsMatchSingleThread() {
+        byte[] src = noise(1600, 1600, new Random(3));
+        byte[] single = new byte[800 * 800 * 3 / 2];
+        byte[] parallel = new byte[single.length];
+        NV21Resampler one = new NV21Resampler(1);
+        NV21Resampler four = new NV21Resampler(4);
+        one.resampleCentered(src, 1600, 1600, single, 800, 800);
+        four.resampleCentered(src, 1600, 1600, parallel, 800, 800);
+        assertArrayEquals(single, parallel);
+        one.shutdown();
+        four.shutdown();
+    }
+
+    /**
+     * Average time per frame of the old point sampler and crop against the
+     * resampler with one to four bands in parallel, for the 2x square
+     * downscale and the 1080p crop. Not part of the unit suite; remove the
+     * {@code @Ignore} to run it.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmark() {
+        int[][] cases = {{1600, 1600, 800, 800}, {1920, 1080, 640, 480}};
+        for (int[] c : cases) {
+            byte[] src = noise(c[0], c[1], new Random(1));
+            byte[] dst = new byte[c[2] * c[3] * 3 / 2];
+            String name = c[0] + "x" + c[1] + "->" + c[2] + "x" + c[3];
+            long legacyNanos = time(() -> legacyInto(src, c[0], c[1], dst, c[2], c[3]));
+            System.out.println(name + " legacy=" + legacyNanos / 1000 + "us");
+            for (int parallelism = 1; parallelism <= 4; parallelism++) {
+                NV21Resampler resampler = new NV21Resampler(parallelism);
+                long nanos = time(() -> resampler.resampleCentered(src, c[0], c[1], dst, c[2], c[3]));
+                System.out.println(name + " resampler(" + parallelism + ")=" + nanos / 1000 + "us"
+                        + " cores=" + Runtime.getRuntime().availableProcessors());
+                resampler.shutdown();
+            }
+        }
+    }
+
+    private static long time(Runnable frame) {
+        for (int i = 0; i < 30; i++) frame.run();
+        int runs = 100;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) frame.run();
+        return (System.nanoTime() - start) / runs;
+    }
+
+    private static byte[] noise(int width, int height, Random random) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        random.nextBytes(frame);
+        return frame;
+    }
+
+    private static byte[] blocky(int width, int height, Random random) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x += 2) {
+                byte luma = (byte) random.nextInt(256);
+                frame[y * width + x] = luma;
+                frame[y * width + x + 1] = luma;
+                frame[(y + 1) * width + x] = luma;
+                frame[(y + 1) * width + x + 1] = luma;
+            }
+        }
+        int chroma = width * height;
+        for (int y = 0; y < height / 2; y += 2) {
+            for (int x = 0; x < width; x += 4) {
+                byte v = (byte) random.nextInt(256);
+                byte u = (byte) random.nextInt(256);
+                for (int dy = 0; dy < 2 && y + dy < height / 2; dy++) {
+                    int row = chroma + (y + dy) * width + x;
+                    frame[row] = v;
+                    frame[row + 1] = u;
+                    frame[row + 2] = v;
+                    frame[row + 3] = u;
+                }
+            }
+        }
+        return frame;
+    }
+
+    private static byte[] legacy(byte[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        byte[] dst = new byte[dstWidth * dstHeight * 3 / 2];
+        legacyInto(src, srcWidth, srcHeight, dst, dstWidth, dstHeight);
+        return dst;
+    }
+
+    /** The enroll controller's choice before NV21Resampler: 2x point sampling for large squares, else a crop. */
+    private static void legacyInto(byte[] src, int srcWidth, int srcHeight, byte[] dst, int dstWidth, int dstHeight) {
+        if (srcWidth == srcHeight && srcWidth >= 800) {
+            downscaleNV21(src, srcWidth, srcHeight, dst, dstWidth, dstHeight);
+        } else {
+            cropNV21(src, srcWidth, srcHeight, dst, dstWidth, dstHeight);
+        }
+    }
+
+    private static void downscaleNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                dest[y * dstWidth + x] = src[(y * 2) * srcWidth + (x * 2)];
+            }
+        }
+        int uvSrcStart = srcWidth * srcHeight;
+        int uvDstStart = dstWidth * dstHeight;
+        for (int y = 0; y < dstHeight / 2; y++) {
+            for (int x = 0; x < dstWidth; x += 2) {
+                int srcIndex = uvSrcStart + (y * 2) * srcWidth + x * 2;
+                int dstIndex = uvDstStart + y * dstWidth + x;
+                dest[dstIndex] = src[srcIndex];
+                dest[dstIndex + 1] = src[srcIndex + 1];
+            }
+        }
+    }
+
+    private static void cropNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
+        int xOffset = (srcWidth - dstWidth) / 2;
+        int yOffset = (srcHeight - dstHeight) / 2;
+        if (xOffset % 2 != 0) xOffset--;
+        if (yOffset % 2 != 0) yOffset--;
+        for (int i = 0; i < dstHeight; i++) {
+            System.arraycopy(src, (yOffset + i) * srcWidth + xOffset, dest, i * dstWidth, dstWidth);
+        }
+        int uvSrcStart = srcWidth * srcHeight;
+        int uvDstStart = dstWidth * dstHeight;
+        for (int i = 0; i < dstHeight / 2; i++) {
+            System.arraycopy(src, uvSrcStart + (yOffset / 2 + i) * srcWidth + xOffset, dest, uvDstStart + i * dstWidth, dstWidth);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ax.nd.faceunlock.camera.capture;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import ax.nd.faceunlock.camera.listeners.FaceDetectionResultListener;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM-only {@link CaptureBackend} that replays canned NV21 frames on a timer,
+ * with camera1 buffer semantics: in buffered mode a frame is dropped when no
+ * callback buffer is queued.
+ */
+public class FakeCaptureBackend implements CaptureBackend {
+    private final int mWidth;
+    private final int mHeight;
+    private final long mFramePeriodMs;
+    private final List<byte[]> mFrames;
+    private final ArrayDeque<byte[]> mCallbackBuffers = new ArrayDeque<>();
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mOpens = new AtomicLong();
+    private ScheduledFuture<?> mReplay;
+    private volatile ByteBufferCallbackListener mCallback;
+    private volatile boolean mWithBuffer;
+    private volatile boolean mOpen;
+    private int mNextFrame = 0;
+
+    public FakeCaptureBackend(int width, int height, long framePeriodMs, List<byte[]> frames) {
+        mWidth = width;
+        mHeight = height;
+        mFramePeriodMs = framePeriodMs;
+        mFrames = frames;
+    }
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    @Override
+    public void open(int cameraId, ErrorCallbackListener errorCallbackListener, CameraListener cameraListener) {
+        mOpen = true;
+        mOpens.incrementAndGet();
+        if (cameraListener != null) cameraListener.onComplete(this);
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+    }
+
+    @Override
+    public int getPreviewWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getPreviewHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void startPreview(SurfaceTexture surfaceTexture, CameraListener cameraListener) {
+        startReplay(cameraListener);
+    }
+
+    @Override
+    public void startPreview(SurfaceHolder surfaceHolder, CameraListener cameraListener) {
+        startReplay(cameraListener);
+    }
+
+    @Override
+    public void configureAndStartPreview(Surface surface, CameraListener cameraListener) {
+        startReplay(cameraListener);
+    }
+
+    private synchronized void startReplay(CameraListener cameraListener) {
+        if (!mOpen) {
+            if (cameraListener != null) cameraListener.onError(new Exception("Camera null"));
+            return;
+        }
+        if (mReplay == null) {
+            mReplay = mTimer.scheduleAtFixedRate(this::deliverFrame, 0, mFramePeriodMs, TimeUnit.MILLISECONDS);
+        }
+        if (cameraListener != null) cameraListener.onComplete(null);
+    }
+
+    private void deliverFrame() {
+        ByteBufferCallbackListener callback = mCallback;
+        if (callback == null || mFrames.isEmpty()) return;
+        byte[] frame = mFrames.get(mNextFrame);
+        mNextFrame = (mNextFrame + 1) % mFrames.size();
+        byte[] target;
+        if (mWithBuffer) {
+            synchronized (mCallbackBuffers) {
+                target = mCallbackBuffers.pollFirst();
+            }
+            if (target == null) {
+                mDropped.incrementAndGet();
+                return;
+            }
+        } else {
+            target = new byte[frame.length];
+        }
+        System.arraycopy(frame, 0, target, 0, Math.min(frame.length, target.length));
+        mDelivered.incrementAndGet();
+        callback.onEventCallback(0, target);
+    }
+
+    @Override
+    public synchronized void stopPreview(CameraListener cameraListener) {
+        if (mReplay != null) {
+            mReplay.cancel(false);
+            mReplay = null;
+        }
+        if (cameraListener != null) cameraListener.onComplete(null);
+    }
+
+    @Override
+    public void setPreviewFpsRange(int min, int max, CameraListener cameraListener) {
+        if (cameraListener != null) cameraListener.onComplete(null);
+    }
+
+    @Override
+    public void setFaceDetectionListener(FaceDetectionResultListener listener, CameraListener cameraListener) {
+        if (cameraListener != null) cameraListener.onError(new UnsupportedOperationException("No face detection"));
+    }
+
+    @Override
+    public void setPreviewCallback(ByteBufferCallbackListener callback, boolean withBuffer, CameraListener cameraListener) {
+        mWithBuffer = withBuffer;
+        mCallback = callback;
+        if (cameraListener != null) cameraListener.onComplete(null);
+    }
+
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        synchronized (mCallbackBuffers) {
+            mCallbackBuffers.addLast(buffer);
+        }
+    }
+
+    @Override
+    public void close(CameraListener cameraListener) {
+        stopPreview(null);
+        mOpen = false;
+        mCallback = null;
+        synchronized (mCallbackBuffers) {
+            mCallbackBuffers.clear();
+        }
+        if (cameraListener != null) cameraListener.onComplete(null);
+    }
+
+    public void shutdown() {
+        mTimer.shutdownNow();
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public long getOpenCount() {
+        return mOpens.get();
+    }
+}
@@ -0,0 +1,64 @@
+package ax.nd.faceunlock.camera.capture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FakeCaptureBackendTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    private FakeCaptureBackend mBackend;
+    private byte[] mFrame;
+
+    @Before
+    public void setUp() {
+        mFrame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < mFrame.length; i++) mFrame[i] = (byte) i;
+        mBackend = new FakeCaptureBackend(WIDTH, HEIGHT, 5, Collections.singletonList(mFrame));
+    }
+
+    @After
+    public void tearDown() {
+        mBackend.shutdown();
+    }
+
+    @Test
+    public void bufferedFramesAreWrittenIntoQueuedBuffers() throws Exception {
+        byte[] buffer = new byte[mFrame.length];
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicReference<Object> received = new AtomicReference<>();
+
+        mBackend.open(1, null, null);
+        mBackend.setPreviewCallback((i, obj) -> {
+            received.set(obj);
+            delivered.countDown();
+        }, true, null);
+        mBackend.addCallbackBuffer(buffer);
+        mBackend.startPreview((android.graphics.SurfaceTexture) null, null);
+
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+        assertSame(buffer, received.get());
+        assertArrayEquals(mFrame, buffer);
+        mBackend.close(null);
+    }
+
+    @Test
+    public void bufferedFramesAreDroppedWithoutBuffers() throws Exception {
+        mBackend.open(1, null, null);
+        mBackend.setPreviewCallback((i, obj) -> fail("no buffer was queued"), true, null);
+        mBackend.startPreview((android.graphics.SurfaceTexture) null, null);
+
+        Thread.sleep(50);
+        mBackend.close(null);
+        assertEquals(0, mBackend.getDeliveredCount());
+        assertTrue(mBackend.getDroppedCount() > 0);
+    }
+}
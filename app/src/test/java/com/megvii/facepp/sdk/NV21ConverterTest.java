@@ -0,0 +1,197 @@
+package com.megvii.facepp.sdk;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NV21ConverterTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private final Random mRandom = new Random(42);
+    private final NV21Converter mConverter = new NV21Converter();
+
+    @Test
+    public void planarUnpadded() {
+        assertMatchesLegacy(planar(WIDTH, WIDTH / 2), false);
+    }
+
+    @Test
+    public void planarPaddedStrides() {
+        assertMatchesLegacy(planar(WIDTH + 16, WIDTH / 2 + 8), false);
+    }
+
+    @Test
+    public void semiPlanarVuUnpadded() {
+        assertMatchesLegacy(semiPlanar(WIDTH, true), true);
+    }
+
+    @Test
+    public void semiPlanarVuPaddedStrides() {
+        assertMatchesLegacy(semiPlanar(WIDTH + 32, true), true);
+    }
+
+    @Test
+    public void semiPlanarUvPaddedStrides() {
+        assertMatchesLegacy(semiPlanar(WIDTH + 32, false), true);
+    }
+
+    /** Camera planes may be read-only; aliasing is found without writing to them. */
+    @Test
+    public void semiPlanarReadOnlyPlanes() {
+        Planes planes = semiPlanar(WIDTH + 32, true);
+        planes.u = planes.u.asReadOnlyBuffer();
+        planes.v = planes.v.asReadOnlyBuffer();
+        assertMatchesLegacy(planes, true);
+        assertMatchesLegacy(planes, true);
+    }
+
+    @Test
+    public void pixelStrideTwoWithoutAliasingUsesGeneralPath() {
+        int rowStride = WIDTH + 8;
+        Planes planes = new Planes();
+        planes.y = filled(rowStride * HEIGHT);
+        planes.yRowStride = rowStride;
+        planes.yPixelStride = 1;
+        planes.u = filled(rowStride * HEIGHT / 2);
+        planes.v = filled(rowStride * HEIGHT / 2);
+        planes.uRowStride = planes.vRowStride = rowStride;
+        planes.uPixelStride = planes.vPixelStride = 2;
+        assertMatchesLegacy(planes, false);
+    }
+
+    @Test
+    public void reusesConverterAcrossFrames() {
+        Planes planes = planar(WIDTH + 16, WIDTH / 2 + 8);
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, convert(planes, out));
+        }
+        assertArrayEquals(legacy(planes), out);
+        assertEquals(3, mConverter.getGeneralPathFrames());
+    }
+
+    @Test
+    public void rejectsShortOutput() {
+        assertEquals(1, convert(planar(WIDTH, WIDTH / 2), new byte[WIDTH * HEIGHT]));
+    }
+
+    private void assertMatchesLegacy(Planes planes, boolean expectFastPath) {
+        byte[] expected = legacy(planes);
+        byte[] actual = new byte[expected.length];
+        long fastBefore = mConverter.getFastPathFrames();
+        int yPos = planes.y.position();
+        int uPos = planes.u.position();
+        int vPos = planes.v.position();
+
+        assertEquals(0, convert(planes, actual));
+        assertArrayEquals(expected, actual);
+        assertEquals(expectFastPath, mConverter.getFastPathFrames() > fastBefore);
+        assertEquals(yPos, planes.y.position());
+        assertEquals(uPos, planes.u.position());
+        assertEquals(vPos, planes.v.position());
+    }
+
+    private int convert(Planes p, byte[] out) {
+        return mConverter.convert(WIDTH, HEIGHT, p.y, p.yRowStride, p.yPixelStride,
+                p.u, p.uRowStride, p.uPixelStride, p.v, p.vRowStride, p.vPixelStride, out);
+    }
+
+    private Planes planar(int yRowStride, int chromaRowStride) {
+        Planes planes = new Planes();
+        planes.y = filled(yRowStride * HEIGHT);
+        planes.yRowStride = yRowStride;
+        planes.yPixelStride = 1;
+        planes.u = filled(chromaRowStride * HEIGHT / 2);
+        planes.v = filled(chromaRowStride * HEIGHT / 2);
+        planes.uRowStride = planes.vRowStride = chromaRowStride;
+        planes.uPixelStride = planes.vPixelStride = 1;
+        return planes;
+    }
+
+    /** One backing buffer with interleaved chroma, the second plane view starting one byte later. */
+    private Planes semiPlanar(int rowStride, boolean vFirst) {
+        int chromaSize = rowStride * (HEIGHT / 2 - 1) + WIDTH;
+        ByteBuffer chroma = filled(chromaSize);
+        Planes planes = new Planes();
+        planes.y = filled(rowStride * HEIGHT);
+        planes.yRowStride = rowStride;
+        planes.yPixelStride = 1;
+        ByteBuffer first = slice(chroma, 0, chromaSize - 1);
+        ByteBuffer second = slice(chroma, 1, chromaSize - 1);
+        planes.v = vFirst ? first : second;
+        planes.u = vFirst ? second : first;
+        planes.uRowStride = planes.vRowStride = rowStride;
+        planes.uPixelStride = planes.vPixelStride = 2;
+        return planes;
+    }
+
+    private ByteBuffer filled(int size) {
+        byte[] data = new byte[size];
+        mRandom.nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(data);
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice();
+    }
+
+    /** The conversion Lite.image2NV21 used before NV21Converter, applied to raw planes. */
+    private static byte[] legacy(Planes p) {
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+        ByteBuffer[] buffers = {p.y.duplicate(), p.u.duplicate(), p.v.duplicate()};
+        int[] rowStrides = {p.yRowStride, p.uRowStride, p.vRowStride};
+        int[] pixelStrides = {p.yPixelStride, p.uPixelStride, p.vPixelStride};
+        int offset = 0;
+        for (int plane = 0; plane < 3; plane++) {
+            ByteBuffer buffer = buffers[plane];
+            int rowStride = rowStrides[plane];
+            int pixelStride = pixelStrides[plane];
+            int width = plane == 0 ? WIDTH : WIDTH / 2;
+            int height = plane == 0 ? HEIGHT : HEIGHT / 2;
+            if (pixelStride == 1 && rowStride == width) {
+                buffer.get(out, offset, width * height);
+                offset += width * height;
+            } else {
+                byte[] row = new byte[rowStride];
+                for (int r = 0; r < height - 1; r++) {
+                    buffer.get(row, 0, rowStride);
+                    for (int c = 0; c < width; c++) out[offset++] = row[c * pixelStride];
+                }
+                buffer.get(row, 0, Math.min(rowStride, buffer.remaining()));
+                for (int c = 0; c < width; c++) out[offset++] = row[c * pixelStride];
+            }
+        }
+        int length = out.length;
+        byte[] chroma = new byte[length / 3];
+        int u = length / 6 * 4;
+        int v = length / 6 * 5;
+        for (int i = 0; i < chroma.length - 1; i += 2) {
+            chroma[i] = out[v++];
+            chroma[i + 1] = out[u++];
+        }
+        System.arraycopy(chroma, 0, out, length / 3 * 2, length - length / 3 * 2);
+        return out;
+    }
+
+    private static class Planes {
+        ByteBuffer y;
+        ByteBuffer u;
+        ByteBuffer v;
+        int yRowStride;
+        int yPixelStride;
+        int uRowStride;
+        int uPixelStride;
+        int vRowStride;
+        int vPixelStride;
+    }
+}